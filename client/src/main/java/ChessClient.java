@@ -19,6 +19,8 @@ public class ChessClient implements NotificationHandler {
     private final WebSocketFacade ws;
     private int currentGame = 0;
     private ChessGame.TeamColor teamColor = null;
+    // where the next lobby page starts, or null once the last page has been shown
+    private Integer lobbyCursor = null;
 
     public ChessClient(String serverUrl) throws ServiceException {
         server = new ServerFacade(serverUrl);
@@ -87,6 +89,7 @@ public class ChessClient implements NotificationHandler {
             } else if (state == State.LOGGEDIN) {
                 return switch (cmd) {
                     case "l", "list" -> list();
+                    case "n", "next" -> next();
                     case "c", "create" -> create(params);
                     case "j", "join" -> join(params);
                     case "w", "watch" -> watch(params);
@@ -141,15 +144,30 @@ public class ChessClient implements NotificationHandler {
     }
 
     public String list() throws ServiceException {
-        var games = server.list(new AuthorizationRequest(authToken));
+        return lobbyPage(0);
+    }
+
+    public String next() throws ServiceException {
+        if(lobbyCursor == null) {
+            return "No more games.";
+        }
+        return lobbyPage(lobbyCursor);
+    }
+
+    private String lobbyPage(int afterGameID) throws ServiceException {
+        var page = server.lobby(new ListGameSummariesRequest(authToken, afterGameID, 0, null, null));
+        lobbyCursor = page.nextCursor();
         var result = new StringBuilder();
-        for(var game : games.games()) {
+        for(var game : page.games()) {
             result.append(readableGameData(game)).append("\n\n");
         }
+        if(lobbyCursor != null) {
+            result.append("More games: “n”, “next”");
+        }
         return result.toString();
     }
 
-    private String readableGameData(GameData gameData) {
+    private String readableGameData(GameSummary gameData) {
         return "Game " + gameData.gameID() + ": " +
                 gameData.gameName() + "\n" +
                 "White player: " + gameData.whiteUsername() + ", black player: " + gameData.blackUsername();
@@ -172,7 +190,9 @@ public class ChessClient implements NotificationHandler {
             } catch (Exception e) {
                 throw new ServiceException("Not a number", ServiceException.Code.BadRequestError);
             }
-            if(gameID <= 0 || !list().contains("Game " + gameID)) {
+            try {
+                server.getGame(new GetGameRequest(authToken, gameID, null));
+            } catch (ServiceException e) {
                 throw new ServiceException("Invalid number", ServiceException.Code.BadRequestError);
             }
             ChessGame.TeamColor color;
@@ -204,15 +224,6 @@ public class ChessClient implements NotificationHandler {
         throw new ServiceException("Expected: <GAME ID>", ServiceException.Code.BadRequestError);
     }
 
-    private ChessBoard findGame(ListGamesResult gameList, int gameID) {
-        for(var i : gameList.games()) {
-            if (i.gameID() == gameID) {
-                return i.game().getBoard();
-            }
-        }
-        return null;
-    }
-
     private String makeGrid(ChessBoard board, boolean whiteSide, ChessPosition highlightPosition) throws ServiceException {
         var highlight = highlightPosition != null;
         ChessGame tempGame;
@@ -384,8 +395,8 @@ public class ChessClient implements NotificationHandler {
         if(params.length > 0) {
             highlightString = params[0];
         }
-        var games = server.list(new AuthorizationRequest(authToken));
-        var game = findGame(games, currentGame);
+        var gameData = server.getGame(new GetGameRequest(authToken, currentGame, null));
+        var game = (gameData == null || gameData.game() == null) ? null : gameData.game().getBoard();
         if(game == null){
             return "GAME BOARD IS NULL";
         }
@@ -428,6 +439,7 @@ public class ChessClient implements NotificationHandler {
             result =  """
                     Options:
                     List current games: “l”, “list”
+                    Show the next page of games: “n”, “next”
                     Create a new game: “c”, “create” <GAME NAME>
                     Join a game: “j”, “join” <GAME ID> <COLOR>
                     Watch a game: “w”, “watch” <GAME ID>
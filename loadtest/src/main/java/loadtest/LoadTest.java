@@ -0,0 +1,202 @@
+package loadtest;
+
+import chess.ChessGame;
+import com.google.gson.Gson;
+import dataaccess.DataAccess;
+import dataaccess.DataAccessException;
+import dataaccess.MemoryDataAccess;
+import dataaccess.MySqlDataAccess;
+import model.CreateGamesRequest;
+import model.JoinGameRequest;
+import model.RegisterRequest;
+import server.Server;
+import server.ServerFacade;
+import server.metrics.LatencyHistogram;
+import service.ServiceException;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A repeatable capacity test. Starts a server in-process, or targets one already
+ * running with --url, then registers pairs of players, seats each pair in its own game
+ * and has them play random legal moves over /ws. Reports moves per second and how long
+ * each move took to reach the opponent as a notification.
+ * <p>
+ * mvn -pl loadtest exec:java -Dexec.args="--players 2000 --plies 40 --backend memory"
+ */
+public class LoadTest {
+    private static final int CREATE_CHUNK = 1000;
+
+    private record Options(int players, int plies, String backend, String url, long seed, int setupThreads,
+                           long timeoutSeconds) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        var options = parse(args);
+        Server server = null;
+        var url = options.url();
+        if (url == null) {
+            // every simulated player shares one address, so the per-IP limit would throttle setup
+            System.setProperty("chess.httpRateLimit", System.getProperty("chess.httpRateLimit", "0"));
+            server = new Server(dataAccess(options.backend()));
+            url = "http://localhost:" + server.run(0);
+        }
+        try {
+            run(options, url);
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+        }
+        System.exit(0);
+    }
+
+    private static DataAccess dataAccess(String backend) throws DataAccessException {
+        return switch (backend) {
+            case "memory" -> new MemoryDataAccess();
+            case "mysql" -> new MySqlDataAccess();
+            default -> throw new IllegalArgumentException("unknown backend " + backend);
+        };
+    }
+
+    private static void run(Options options, String url) throws Exception {
+        var facade = new ServerFacade(url);
+        var client = HttpClient.newHttpClient();
+        var pairs = options.players() / 2;
+        var runID = Long.toString(System.currentTimeMillis(), 36);
+        var setup = Executors.newFixedThreadPool(options.setupThreads());
+
+        var setupStart = System.nanoTime();
+        var players = runAll(setup, pairs * 2, i -> facade.register(
+                new RegisterRequest("load-" + runID + "-" + i, "password", "load@example.com")));
+        var gameIDs = new ArrayList<Integer>();
+        for (int first = 0; first < pairs; first += CREATE_CHUNK) {
+            var names = new ArrayList<String>();
+            for (int i = first; i < Math.min(pairs, first + CREATE_CHUNK); i++) {
+                names.add("load " + runID + " " + i);
+            }
+            gameIDs.addAll(facade.createAll(new CreateGamesRequest(players.getFirst().authToken(), names)).gameIDs());
+        }
+        runAll(setup, pairs * 2, i -> {
+            var color = i % 2 == 0 ? ChessGame.TeamColor.WHITE : ChessGame.TeamColor.BLACK;
+            join(client, url, new JoinGameRequest(players.get(i).authToken(), color, gameIDs.get(i / 2)));
+            return null;
+        });
+        setup.shutdown();
+
+        var moveLatency = new LatencyHistogram();
+        var moves = new LongAdder();
+        var errors = new LongAdder();
+        var games = new ArrayList<SimulatedGame>();
+        var connected = new ArrayList<CompletableFuture<Void>>();
+        var socketURI = URI.create(url.replaceFirst("^http", "ws") + "/ws");
+        for (int i = 0; i < pairs; i++) {
+            var game = new SimulatedGame(gameIDs.get(i), players.get(2 * i), players.get(2 * i + 1), options.seed() + i,
+                    options.plies(), moveLatency, moves, errors);
+            games.add(game);
+            connected.add(game.connect(client, socketURI));
+        }
+        CompletableFuture.allOf(connected.toArray(CompletableFuture[]::new)).get(options.timeoutSeconds(), TimeUnit.SECONDS);
+        var setupSeconds = (System.nanoTime() - setupStart) / 1e9;
+
+        var playStart = System.nanoTime();
+        var finished = games.stream().map(SimulatedGame::play).toArray(CompletableFuture[]::new);
+        var timedOut = false;
+        try {
+            CompletableFuture.allOf(finished).get(options.timeoutSeconds(), TimeUnit.SECONDS);
+        } catch (TimeoutException ex) {
+            timedOut = true;
+        }
+        var playSeconds = (System.nanoTime() - playStart) / 1e9;
+        games.forEach(SimulatedGame::close);
+
+        var unfinished = 0;
+        for (var future : finished) {
+            if (!future.isDone()) {
+                unfinished++;
+            }
+        }
+        System.out.printf("%nplayers %d, games %d, plies per game up to %d, backend %s%n", pairs * 2, pairs,
+                options.plies(), options.url() == null ? options.backend() : options.url());
+        System.out.printf("setup %.1f s (register, create, join, connect)%n", setupSeconds);
+        System.out.printf("moves %d in %.1f s: %.0f moves/s%n", moves.sum(), playSeconds, moves.sum() / playSeconds);
+        System.out.printf("move to opponent notification: p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, p999 %.2f ms%n",
+                millis(moveLatency, 0.5), millis(moveLatency, 0.9), millis(moveLatency, 0.99), millis(moveLatency, 0.999));
+        System.out.printf("errors %d, unfinished games %d%s%n", errors.sum(), unfinished, timedOut ? " (timed out)" : "");
+    }
+
+    private interface Indexed<T> {
+        T call(int index) throws Exception;
+    }
+
+    private static <T> ArrayList<T> runAll(ExecutorService executor, int count, Indexed<T> task)
+            throws InterruptedException, ExecutionException {
+        var tasks = new ArrayList<Callable<T>>();
+        for (int i = 0; i < count; i++) {
+            var index = i;
+            tasks.add(() -> task.call(index));
+        }
+        var res = new ArrayList<T>();
+        for (var future : executor.invokeAll(tasks)) {
+            res.add(future.get());
+        }
+        return res;
+    }
+
+    /**
+     * Claims a seat directly. ServerFacade.join also re-lists every game afterwards,
+     * which with thousands of games would turn setup into the whole test.
+     */
+    private static void join(HttpClient client, String url, JoinGameRequest request) throws Exception {
+        var http = HttpRequest.newBuilder(URI.create(url + "/game"))
+                .header("authorization", request.authToken())
+                .PUT(HttpRequest.BodyPublishers.ofString(new Gson().toJson(request)))
+                .build();
+        var response = client.send(http, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new ServiceException("Error: join failed: " + response.body(), ServiceException.Code.ServerError);
+        }
+    }
+
+    private static double millis(LatencyHistogram histogram, double quantile) {
+        return histogram.valueAtQuantile(quantile) / 1e6;
+    }
+
+    private static Options parse(String[] args) {
+        int players = 1000;
+        int plies = 40;
+        String backend = "memory";
+        String url = null;
+        long seed = 1;
+        int setupThreads = 32;
+        long timeoutSeconds = 600;
+        var list = List.of(args);
+        for (int i = 0; i + 1 < list.size(); i += 2) {
+            var value = list.get(i + 1);
+            switch (list.get(i)) {
+                case "--players" -> players = Integer.parseInt(value);
+                case "--plies" -> plies = Integer.parseInt(value);
+                case "--backend" -> backend = value;
+                case "--url" -> url = value;
+                case "--seed" -> seed = Long.parseLong(value);
+                case "--setupThreads" -> setupThreads = Integer.parseInt(value);
+                case "--timeout" -> timeoutSeconds = Long.parseLong(value);
+                default -> throw new IllegalArgumentException("unknown option " + list.get(i));
+            }
+        }
+        return new Options(Math.max(2, players), plies, backend, url, seed, setupThreads, timeoutSeconds);
+    }
+}
@@ -0,0 +1,201 @@
+package loadtest;
+
+import chess.ChessGame;
+import chess.ChessMove;
+import chess.ChessPosition;
+import chess.InvalidMoveException;
+import com.google.gson.Gson;
+import model.LoginResult;
+import server.metrics.LatencyHistogram;
+import websocket.commands.UserGameCommand;
+import websocket.messages.ServerMessage;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Two simulated players in one game. The players take turns: one sends MAKE_MOVE and
+ * the other picks its reply once the server's notification of that move reaches it.
+ * Both sides keep a local copy of the game to choose legal moves from, which stays in
+ * step with the server's because every move is applied only after the server has
+ * accepted it.
+ */
+class SimulatedGame {
+    private static final Gson GSON = new Gson();
+
+    private final int gameID;
+    private final Player white;
+    private final Player black;
+    private final ChessGame game = new ChessGame();
+    private final Random random;
+    private final int maxPlies;
+    private final LatencyHistogram moveLatency;
+    private final LongAdder moves;
+    private final LongAdder errors;
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+    private ChessMove pending;
+    private long sentAt;
+    private int plies;
+
+    SimulatedGame(int gameID, LoginResult white, LoginResult black, long seed, int maxPlies,
+                  LatencyHistogram moveLatency, LongAdder moves, LongAdder errors) {
+        this.gameID = gameID;
+        this.white = new Player(white);
+        this.black = new Player(black);
+        random = new Random(seed);
+        this.maxPlies = maxPlies;
+        this.moveLatency = moveLatency;
+        this.moves = moves;
+        this.errors = errors;
+    }
+
+    /**
+     * Opens both players' sockets and sends CONNECT for each.
+     * @return completes once both players have been sent the game
+     */
+    CompletableFuture<Void> connect(HttpClient client, URI socketURI) {
+        return CompletableFuture.allOf(white.connect(client, socketURI), black.connect(client, socketURI));
+    }
+
+    /**
+     * @return completes when the game ends, by running out of plies or legal moves, or on an error
+     */
+    CompletableFuture<Void> play() {
+        synchronized (this) {
+            sendNextMove(white);
+        }
+        return done;
+    }
+
+    void close() {
+        white.close();
+        black.close();
+    }
+
+    private void onMessage(Player receiver, ServerMessage message) {
+        switch (message.getServerMessageType()) {
+            case LOAD_GAME -> receiver.loaded.complete(null);
+            case ERROR -> {
+                errors.increment();
+                System.out.printf("Game %d: %s%n", gameID, message.getErrorMessage());
+                done.complete(null);
+            }
+            case NOTIFICATION -> onNotification(receiver, message.getMessage());
+        }
+    }
+
+    private synchronized void onNotification(Player receiver, String message) {
+        var mover = moverFor(game.getTeamTurn());
+        // a move that gives check is announced to the mover too, and that copy can arrive
+        // after the opponent has already replied, so only the opponent's copy of this exact move counts
+        if (pending == null || receiver == mover || !message.startsWith(String.format("%s moved from %s to %s",
+                mover.username, pending.getStartPosition(), pending.getEndPosition()))) {
+            return;
+        }
+        moveLatency.record(System.nanoTime() - sentAt);
+        moves.increment();
+        try {
+            game.makeMove(pending);
+        } catch (InvalidMoveException ex) {
+            errors.increment();
+            done.complete(null);
+            return;
+        }
+        pending = null;
+        plies++;
+        if (plies >= maxPlies) {
+            done.complete(null);
+            return;
+        }
+        sendNextMove(receiver);
+    }
+
+    private void sendNextMove(Player mover) {
+        var legal = legalMoves();
+        if (legal.isEmpty()) {
+            done.complete(null);
+            return;
+        }
+        pending = legal.get(random.nextInt(legal.size()));
+        sentAt = System.nanoTime();
+        mover.send(new UserGameCommand(UserGameCommand.CommandType.MAKE_MOVE, mover.authToken, gameID, pending));
+    }
+
+    private Player moverFor(ChessGame.TeamColor color) {
+        return color == ChessGame.TeamColor.WHITE ? white : black;
+    }
+
+    private ArrayList<ChessMove> legalMoves() {
+        var res = new ArrayList<ChessMove>();
+        for (int row = 1; row <= 8; row++) {
+            for (int col = 1; col <= 8; col++) {
+                var position = new ChessPosition(row, col);
+                var piece = game.getBoard().getPiece(position);
+                if (piece != null && piece.getTeamColor() == game.getTeamTurn()) {
+                    res.addAll(game.validMoves(position));
+                }
+            }
+        }
+        return res;
+    }
+
+    private class Player implements WebSocket.Listener {
+        private final String username;
+        private final String authToken;
+        private final CompletableFuture<Void> loaded = new CompletableFuture<>();
+        private final StringBuilder partial = new StringBuilder();
+        private WebSocket socket;
+
+        private Player(LoginResult login) {
+            username = login.username();
+            authToken = login.authToken();
+        }
+
+        private CompletableFuture<Void> connect(HttpClient client, URI socketURI) {
+            return client.newWebSocketBuilder().buildAsync(socketURI, this).thenCompose(ws -> {
+                socket = ws;
+                send(new UserGameCommand(UserGameCommand.CommandType.CONNECT, authToken, gameID));
+                return loaded;
+            });
+        }
+
+        private void send(UserGameCommand command) {
+            socket.sendText(GSON.toJson(command), true).exceptionally(ex -> {
+                errors.increment();
+                done.complete(null);
+                return null;
+            });
+        }
+
+        private void close() {
+            if (socket != null) {
+                socket.sendClose(WebSocket.NORMAL_CLOSURE, "done");
+            }
+        }
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            partial.append(data);
+            if (last) {
+                var message = GSON.fromJson(partial.toString(), ServerMessage.class);
+                partial.setLength(0);
+                onMessage(this, message);
+            }
+            webSocket.request(1);
+            return null;
+        }
+
+        @Override
+        public void onError(WebSocket webSocket, Throwable error) {
+            errors.increment();
+            loaded.completeExceptionally(error);
+            done.complete(null);
+        }
+    }
+}
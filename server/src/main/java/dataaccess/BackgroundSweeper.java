@@ -0,0 +1,33 @@
+package dataaccess;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single daemon thread shared by every data store for periodic cleanup work, so
+ * creating a store never costs a thread of its own.
+ */
+public class BackgroundSweeper {
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        var thread = new Thread(runnable, "data-sweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private BackgroundSweeper() {
+    }
+
+    public static ScheduledFuture<?> schedule(Runnable task, Duration period) {
+        return SCHEDULER.scheduleWithFixedDelay(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException ex) {
+                // a failed sweep is retried on the next period instead of cancelling the schedule
+                System.out.println("Background sweep failed: " + ex.getMessage());
+            }
+        }, period.toMillis(), period.toMillis(), TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,181 @@
+package dataaccess;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of JDBC connections. Callers get a wrapper whose close() hands the
+ * underlying connection back to the pool, so DAO code keeps using try-with-resources
+ * exactly as it would with DriverManager.
+ */
+class ConnectionPool {
+    private final String url;
+    private final String username;
+    private final String password;
+    private final String catalog;
+    private final int maxSize;
+    private final long acquireTimeoutMillis;
+    private final long maxLifetimeMillis;
+    private final long validateAfterIdleMillis;
+
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong acquisitions = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    private static class PooledConnection {
+        private final Connection connection;
+        private final long createdAt;
+        private long lastReturned;
+
+        private PooledConnection(Connection connection, long createdAt) {
+            this.connection = connection;
+            this.createdAt = createdAt;
+            this.lastReturned = createdAt;
+        }
+    }
+
+    ConnectionPool(String url, String username, String password, String catalog, int maxSize,
+                   long acquireTimeoutMillis, long maxLifetimeMillis, long validateAfterIdleMillis) {
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.catalog = catalog;
+        this.maxSize = maxSize;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.maxLifetimeMillis = maxLifetimeMillis;
+        this.validateAfterIdleMillis = validateAfterIdleMillis;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    Connection acquire() throws DataAccessException {
+        var start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeouts.incrementAndGet();
+                throw new DataAccessException(String.format("timed out after %d ms waiting for a database connection", acquireTimeoutMillis));
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new DataAccessException("interrupted waiting for a database connection", ex);
+        }
+        recordWait(System.nanoTime() - start);
+        try {
+            var pooled = takeUsable();
+            active.incrementAndGet();
+            acquisitions.incrementAndGet();
+            return wrap(pooled);
+        } catch (SQLException ex) {
+            permits.release();
+            throw new DataAccessException("failed to get connection", ex);
+        }
+    }
+
+    PoolMetrics metrics() {
+        return new PoolMetrics(active.get(), idle.size(), maxSize, acquisitions.get(), timeouts.get(),
+                created.get(), totalWaitNanos.get(), maxWaitNanos.get());
+    }
+
+    private PooledConnection takeUsable() throws SQLException {
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            var now = System.currentTimeMillis();
+            if (now - pooled.createdAt >= maxLifetimeMillis) {
+                closeQuietly(pooled.connection);
+                continue;
+            }
+            // only connections that sat idle long enough to have been dropped by the server are pinged
+            if (now - pooled.lastReturned >= validateAfterIdleMillis && !pooled.connection.isValid(1)) {
+                closeQuietly(pooled.connection);
+                continue;
+            }
+            return pooled;
+        }
+        var connection = DriverManager.getConnection(url, username, password);
+        connection.setCatalog(catalog);
+        created.incrementAndGet();
+        return new PooledConnection(connection, System.currentTimeMillis());
+    }
+
+    private void release(PooledConnection pooled) {
+        active.decrementAndGet();
+        try {
+            var connection = pooled.connection;
+            if (connection.isClosed() || System.currentTimeMillis() - pooled.createdAt >= maxLifetimeMillis) {
+                closeQuietly(connection);
+            } else {
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+                pooled.lastReturned = System.currentTimeMillis();
+                // most recently used first, so a quiet pool lets its extra connections age out
+                idle.offerFirst(pooled);
+            }
+        } catch (SQLException ex) {
+            closeQuietly(pooled.connection);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private Connection wrap(PooledConnection pooled) {
+        var closed = new boolean[]{false};
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "close" -> {
+                            if (!closed[0]) {
+                                closed[0] = true;
+                                release(pooled);
+                            }
+                            return null;
+                        }
+                        case "isClosed" -> {
+                            return closed[0] || pooled.connection.isClosed();
+                        }
+                        case "equals" -> {
+                            return proxy == args[0];
+                        }
+                        case "hashCode" -> {
+                            return System.identityHashCode(proxy);
+                        }
+                        default -> {
+                            if (closed[0]) {
+                                throw new SQLException("connection has been returned to the pool");
+                            }
+                        }
+                    }
+                    try {
+                        return method.invoke(pooled.connection, args);
+                    } catch (InvocationTargetException ex) {
+                        throw ex.getCause();
+                    }
+                });
+    }
+
+    private void recordWait(long waitNanos) {
+        totalWaitNanos.addAndGet(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+            // the connection is being thrown away either way
+        }
+    }
+}
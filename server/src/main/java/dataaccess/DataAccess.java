@@ -1,23 +1,68 @@
 package dataaccess;
 
 import chess.ChessGame;
+import chess.ChessMove;
 import model.AuthData;
 import model.GameData;
+import model.GameSummary;
 import model.UserData;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.List;
+
+public interface DataAccess extends AutoCloseable {
+    Duration DEFAULT_AUTH_TTL = Duration.ofHours(24);
 
-public interface DataAccess {
     void saveUser(UserData userData) throws DataAccessException;
     UserData getUser(String username) throws DataAccessException;
+    /**
+     * Replaces a user's stored password hash, such as when it is rehashed at a new cost.
+     */
+    void updatePassword(String username, String passwordHash) throws DataAccessException;
     void clearData() throws DataAccessException;
     String findAuth(String authKey) throws DataAccessException;
     void deleteAuth(String authKey) throws DataAccessException;
     void addAuth(AuthData authData) throws DataAccessException;
     ArrayList<GameData> listGames() throws DataAccessException;
+    ArrayList<GameSummary> listGameSummaries(int afterGameID, int limit, Boolean openSeats, GameSummary.Status status) throws DataAccessException;
+    boolean gameExists(int gameID) throws DataAccessException;
     int createGame(String gameName) throws DataAccessException;
+    /**
+     * @return the new game IDs, in the same order as gameNames
+     */
+    ArrayList<Integer> createGames(List<String> gameNames) throws DataAccessException;
     GameData getGame(int gameID) throws DataAccessException;
-    void addPlayerToGame(String authToken, ChessGame.TeamColor playerColor, int gameID) throws DataAccessException;
+    Integer getGameRevision(int gameID) throws DataAccessException;
+    /**
+     * Claims the seat only if it is empty, in one step, so two players racing for the
+     * same color cannot both get it.
+     * @return false if the seat was already taken or the game does not exist
+     */
+    boolean addPlayerToGame(String username, ChessGame.TeamColor playerColor, int gameID) throws DataAccessException;
     void removeFromGame(int gameID, ChessGame.TeamColor teamColor) throws DataAccessException;
     void updateGame(GameData gameData) throws DataAccessException;
+    /**
+     * Writes the game only if its revision is still expectedVersion, as read from
+     * getGameRevision before the game was loaded.
+     * @return false if someone else changed the game first
+     */
+    boolean updateGame(GameData gameData, int expectedVersion) throws DataAccessException;
+    boolean recordMove(GameData gameData, ChessMove move, int expectedVersion) throws DataAccessException;
+    /**
+     * Moves up to limit finished games out of the live tables into the archive. Archived
+     * games no longer appear in listGames or the lobby, but getGame still finds them.
+     * @return how many games were archived
+     */
+    int archiveFinishedGames(int limit) throws DataAccessException;
+    /**
+     * @param username if not null, only games this user played in
+     */
+    ArrayList<GameSummary> listArchivedGames(String username, int afterGameID, int limit) throws DataAccessException;
+    /**
+     * Stops any background work the store scheduled. The store must not be used after.
+     */
+    @Override
+    default void close() throws DataAccessException {
+    }
 }
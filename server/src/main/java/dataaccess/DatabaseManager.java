@@ -8,6 +8,9 @@ public class DatabaseManager {
     private static String dbUsername;
     private static String dbPassword;
     private static String connectionUrl;
+    private static ConnectionPool pool;
+    private static int batchMaxSize;
+    private static long batchWindowMillis;
 
     /*
      * Load the database information for the db.properties file.
@@ -30,10 +33,11 @@ public class DatabaseManager {
     }
 
     /**
-     * Create a connection to the database and sets the catalog based upon the
-     * properties specified in db.properties. Connections to the database should
-     * be short-lived, and you must close the connection when you are done with it.
-     * The easiest way to do that is with a try-with-resource block.
+     * Borrow a connection to the database from the pool, with the catalog set based
+     * upon the properties specified in db.properties. Connections to the database
+     * should be short-lived, and you must close the connection when you are done with
+     * it, which returns it to the pool. The easiest way to do that is with a
+     * try-with-resource block.
      * <br/>
      * <code>
      * try (var conn = DatabaseManager.getConnection()) {
@@ -42,14 +46,25 @@ public class DatabaseManager {
      * </code>
      */
     static Connection getConnection() throws DataAccessException {
-        try {
-            //do not wrap the following line with a try-with-resources
-            var conn = DriverManager.getConnection(connectionUrl, dbUsername, dbPassword);
-            conn.setCatalog(databaseName);
-            return conn;
-        } catch (SQLException ex) {
-            throw new DataAccessException("failed to get connection", ex);
-        }
+        return pool.acquire();
+    }
+
+    public static PoolMetrics poolMetrics() {
+        return pool.metrics();
+    }
+
+    /**
+     * The most moves committed together in one transaction.
+     */
+    static int batchMaxSize() {
+        return batchMaxSize;
+    }
+
+    /**
+     * How long a batch of moves waits for more to join it before committing.
+     */
+    static long batchWindowMillis() {
+        return batchWindowMillis;
     }
 
     private static void loadPropertiesFromResources() {
@@ -73,5 +88,15 @@ public class DatabaseManager {
         var host = props.getProperty("db.host");
         var port = Integer.parseInt(props.getProperty("db.port"));
         connectionUrl = String.format("jdbc:mysql://%s:%d", host, port);
+
+        var maxSize = Integer.parseInt(props.getProperty("db.pool.maxSize", "10"));
+        var acquireTimeout = Long.parseLong(props.getProperty("db.pool.acquireTimeoutMillis", "5000"));
+        var maxLifetime = Long.parseLong(props.getProperty("db.pool.maxLifetimeMillis", "1800000"));
+        var validateAfterIdle = Long.parseLong(props.getProperty("db.pool.validateAfterIdleMillis", "30000"));
+        pool = new ConnectionPool(connectionUrl, dbUsername, dbPassword, databaseName, maxSize,
+                acquireTimeout, maxLifetime, validateAfterIdle);
+
+        batchMaxSize = Integer.parseInt(props.getProperty("db.batch.maxSize", "64"));
+        batchWindowMillis = Long.parseLong(props.getProperty("db.batch.windowMillis", "2"));
     }
 }
@@ -0,0 +1,641 @@
+package dataaccess;
+
+import chess.ChessGame;
+import chess.ChessMove;
+import chess.GameCodec;
+import chess.InvalidMoveException;
+import chess.MoveEncoding;
+import model.AuthData;
+import model.GameData;
+import model.GameSummary;
+import model.UserData;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Serves everything from a MemoryDataAccess but survives restarts. Each change is
+ * appended to a write-ahead log before the call returns, and every so often the whole
+ * state is written to a snapshot so older log segments can be deleted. On startup the
+ * snapshot is loaded and the log written since is replayed on top of it.
+ * <p>
+ * Changes are applied in memory before they are logged. If the log fails, the store
+ * stops serving reads as well as writes, so nobody sees a change that was never made
+ * durable. Restarting recovers the state the log does have.
+ */
+public class FileDataAccess implements DataAccess {
+    private static final int LOCK_STRIPES = 64;
+    private static final long SNAPSHOT_AFTER_RECORDS = 10_000;
+    private static final Duration SNAPSHOT_CHECK_PERIOD = Duration.ofSeconds(30);
+    private static final int SNAPSHOT_MAGIC = 0x43485353;
+    private static final int SNAPSHOT_VERSION = 2;
+
+    private static final byte USER = 1;
+    private static final byte AUTH_ADD = 2;
+    private static final byte AUTH_DELETE = 3;
+    private static final byte GAME_CREATE = 4;
+    private static final byte SEAT = 5;
+    private static final byte GAME_STATE = 6;
+    private static final byte MOVE = 7;
+    private static final byte CLEAR = 8;
+    private static final byte ARCHIVE = 9;
+    private static final byte PASSWORD = 10;
+
+    private final MemoryDataAccess memory;
+    private final Path directory;
+    private final WriteAheadLog log;
+    private final FileLock directoryLock;
+    // changes hold the read side; a snapshot takes the write side just long enough to cut the log
+    private final ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+    // changes to one game are applied and logged under its stripe, so the log has them in the order they happened
+    private final Object[] stripes = new Object[LOCK_STRIPES];
+    private final Object snapshotLock = new Object();
+    private final ScheduledFuture<?> snapshotter;
+
+    private interface Change {
+        /**
+         * @return the log record describing what changed, or null if nothing did
+         */
+        byte[] apply() throws DataAccessException;
+    }
+
+    public FileDataAccess(Path directory) throws DataAccessException {
+        this(directory, DEFAULT_AUTH_TTL);
+    }
+
+    public FileDataAccess(Path directory, Duration authTtl) throws DataAccessException {
+        this(directory, authTtl, MemoryDataAccess.DEFAULT_HIBERNATE_AFTER);
+    }
+
+    public FileDataAccess(Path directory, Duration authTtl, Duration hibernateAfter) throws DataAccessException {
+        this(directory, authTtl, hibernateAfter, null);
+    }
+
+    /**
+     * @param opener opens log segments, or null for plain files
+     */
+    FileDataAccess(Path directory, Duration authTtl, Duration hibernateAfter, WriteAheadLog.Opener opener) throws DataAccessException {
+        this.directory = directory;
+        memory = new MemoryDataAccess(authTtl, hibernateAfter);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+        try {
+            Files.createDirectories(directory);
+            // a second server appending to the same log would corrupt it
+            directoryLock = FileChannel.open(directory.resolve("lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE).tryLock();
+            if (directoryLock == null) {
+                throw new IOException("another server is using it");
+            }
+            var firstSegment = loadSnapshot();
+            var lastSegment = WriteAheadLog.replay(directory, firstSegment, this::replay);
+            log = opener == null ? new WriteAheadLog(directory, lastSegment) : new WriteAheadLog(directory, lastSegment, opener);
+        } catch (IOException | RuntimeException ex) {
+            throw new DataAccessException(String.format("Error: unable to open data directory %s: %s", directory, ex.getMessage()), ex);
+        }
+        snapshotter = BackgroundSweeper.schedule(this::snapshotIfDue, SNAPSHOT_CHECK_PERIOD);
+    }
+
+    @Override
+    public void saveUser(UserData userData) throws DataAccessException {
+        write(null, () -> {
+            memory.saveUser(userData);
+            return record(USER, out -> {
+                writeString(out, userData.username());
+                writeString(out, userData.password());
+                writeString(out, userData.email());
+            });
+        });
+    }
+
+    @Override
+    public UserData getUser(String username) throws DataAccessException {
+        return memory().getUser(username);
+    }
+
+    @Override
+    public void updatePassword(String username, String passwordHash) throws DataAccessException {
+        write(null, () -> {
+            memory.updatePassword(username, passwordHash);
+            return record(PASSWORD, out -> {
+                writeString(out, username);
+                writeString(out, passwordHash);
+            });
+        });
+    }
+
+    @Override
+    public void clearData() throws DataAccessException {
+        long sequence;
+        checkpointLock.writeLock().lock();
+        try {
+            memory().clearData();
+            sequence = appendRecord(new byte[]{CLEAR});
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+        sync(sequence);
+    }
+
+    @Override
+    public String findAuth(String authKey) throws DataAccessException {
+        // the sliding expiry is not logged, so after a restart a token expires TTL after it was issued or last snapshotted
+        return memory().findAuth(authKey);
+    }
+
+    @Override
+    public void deleteAuth(String authKey) throws DataAccessException {
+        write(null, () -> {
+            memory.deleteAuth(authKey);
+            return record(AUTH_DELETE, out -> writeString(out, authKey));
+        });
+    }
+
+    @Override
+    public void addAuth(AuthData authData) throws DataAccessException {
+        var expiresAt = System.currentTimeMillis() + memory().authTtlMillis();
+        write(null, () -> {
+            memory.addAuth(authData, expiresAt);
+            return record(AUTH_ADD, out -> {
+                writeString(out, authData.authToken());
+                writeString(out, authData.username());
+                out.writeLong(expiresAt);
+            });
+        });
+    }
+
+    @Override
+    public ArrayList<GameData> listGames() throws DataAccessException {
+        return memory().listGames();
+    }
+
+    @Override
+    public ArrayList<GameSummary> listGameSummaries(int afterGameID, int limit, Boolean openSeats, GameSummary.Status status) throws DataAccessException {
+        return memory().listGameSummaries(afterGameID, limit, openSeats, status);
+    }
+
+    @Override
+    public boolean gameExists(int gameID) throws DataAccessException {
+        return memory().gameExists(gameID);
+    }
+
+    @Override
+    public int createGame(String gameName) throws DataAccessException {
+        var gameID = memory().allocateGameID();
+        sync(append(gameID, () -> insertGame(gameID, gameName)));
+        return gameID;
+    }
+
+    @Override
+    public ArrayList<Integer> createGames(List<String> gameNames) throws DataAccessException {
+        var gameIDs = new ArrayList<Integer>();
+        long sequence = 0;
+        for (var gameName : gameNames) {
+            var gameID = memory().allocateGameID();
+            sequence = append(gameID, () -> insertGame(gameID, gameName));
+            gameIDs.add(gameID);
+        }
+        // one wait for the whole batch rather than one per game
+        sync(sequence);
+        return gameIDs;
+    }
+
+    private byte[] insertGame(int gameID, String gameName) throws DataAccessException {
+        memory.putGame(new GameData(gameID, null, null, gameName, new ChessGame()), 0);
+        return record(GAME_CREATE, out -> {
+            out.writeInt(gameID);
+            writeString(out, gameName);
+        });
+    }
+
+    @Override
+    public GameData getGame(int gameID) throws DataAccessException {
+        return memory().getGame(gameID);
+    }
+
+    @Override
+    public Integer getGameRevision(int gameID) throws DataAccessException {
+        return memory().getGameRevision(gameID);
+    }
+
+    @Override
+    public boolean addPlayerToGame(String username, ChessGame.TeamColor playerColor, int gameID) throws DataAccessException {
+        return write(gameID, () -> {
+            if (!memory.addPlayerToGame(username, playerColor, gameID)) {
+                return null;
+            }
+            return seatRecord(gameID, playerColor, username);
+        });
+    }
+
+    @Override
+    public void removeFromGame(int gameID, ChessGame.TeamColor teamColor) throws DataAccessException {
+        write(gameID, () -> {
+            if (!memory.gameExists(gameID)) {
+                return null;
+            }
+            memory.removeFromGame(gameID, teamColor);
+            return seatRecord(gameID, teamColor, null);
+        });
+    }
+
+    private byte[] seatRecord(int gameID, ChessGame.TeamColor color, String username) throws DataAccessException {
+        return record(SEAT, out -> {
+            out.writeInt(gameID);
+            out.writeByte(color.ordinal());
+            writeString(out, username);
+        });
+    }
+
+    @Override
+    public void updateGame(GameData gameData) throws DataAccessException {
+        write(gameData.gameID(), () -> {
+            if (!memory.gameExists(gameData.gameID())) {
+                return null;
+            }
+            memory.updateGame(gameData);
+            return gameStateRecord(gameData);
+        });
+    }
+
+    @Override
+    public boolean updateGame(GameData gameData, int expectedVersion) throws DataAccessException {
+        return write(gameData.gameID(), () -> {
+            if (!memory.updateGame(gameData, expectedVersion)) {
+                return null;
+            }
+            return gameStateRecord(gameData);
+        });
+    }
+
+    @Override
+    public boolean recordMove(GameData gameData, ChessMove move, int expectedVersion) throws DataAccessException {
+        return write(gameData.gameID(), () -> {
+            if (!memory.recordMove(gameData, move, expectedVersion)) {
+                return null;
+            }
+            // just the move, which replays to the same game for a fraction of the bytes
+            return record(MOVE, out -> {
+                out.writeInt(gameData.gameID());
+                out.writeShort(MoveEncoding.encode(move));
+                out.writeBoolean(gameData.game().gameOver());
+            });
+        });
+    }
+
+    @Override
+    public int archiveFinishedGames(int limit) throws DataAccessException {
+        var archived = 0;
+        long sequence = 0;
+        for (var gameID : memory().finishedGameIDs(limit)) {
+            var appended = append(gameID, () -> memory.archiveGame(gameID) ? record(ARCHIVE, out -> out.writeInt(gameID)) : null);
+            if (appended != 0) {
+                sequence = appended;
+                archived++;
+            }
+        }
+        sync(sequence);
+        return archived;
+    }
+
+    @Override
+    public ArrayList<GameSummary> listArchivedGames(String username, int afterGameID, int limit) throws DataAccessException {
+        return memory().listArchivedGames(username, afterGameID, limit);
+    }
+
+    private byte[] gameStateRecord(GameData gameData) throws DataAccessException {
+        return record(GAME_STATE, out -> {
+            out.writeInt(gameData.gameID());
+            writeString(out, gameData.gameName());
+            writeString(out, gameData.whiteUsername());
+            writeString(out, gameData.blackUsername());
+            writeBytes(out, GameCodec.encode(gameData.game()));
+        });
+    }
+
+    /**
+     * Writes the current state to a new snapshot and deletes the log segments it covers.
+     */
+    public void snapshot() throws DataAccessException {
+        synchronized (snapshotLock) {
+            ArrayList<UserData> users;
+            ArrayList<MemoryAuthStore.LiveToken> auths;
+            ArrayList<MemoryDataAccess.StoredGame> games;
+            ArrayList<MemoryDataAccess.ArchivedGame> archived;
+            int lastGameID;
+            long nextSegment;
+            checkpointLock.writeLock().lock();
+            try {
+                users = memory.allUsers();
+                auths = memory.liveAuths();
+                games = memory.storedGames();
+                archived = memory.archivedGames();
+                lastGameID = memory.lastGameID();
+                nextSegment = log.rotate();
+            } catch (IOException ex) {
+                throw new DataAccessException(String.format("Error: unable to rotate log: %s", ex.getMessage()), ex);
+            } finally {
+                checkpointLock.writeLock().unlock();
+            }
+            // stored games are never modified in place, so they can be encoded after the lock is released
+            try {
+                var bytes = new ByteArrayOutputStream();
+                var out = new DataOutputStream(bytes);
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeLong(nextSegment);
+                out.writeInt(lastGameID);
+                out.writeInt(users.size());
+                for (var user : users) {
+                    writeString(out, user.username());
+                    writeString(out, user.password());
+                    writeString(out, user.email());
+                }
+                out.writeInt(auths.size());
+                for (var auth : auths) {
+                    writeString(out, auth.authToken());
+                    writeString(out, auth.username());
+                    out.writeLong(auth.expiresAt());
+                }
+                out.writeInt(games.size());
+                for (var stored : games) {
+                    var gameData = stored.gameData();
+                    out.writeInt(gameData.gameID());
+                    writeString(out, gameData.gameName());
+                    writeString(out, gameData.whiteUsername());
+                    writeString(out, gameData.blackUsername());
+                    out.writeInt(stored.revision());
+                    writeBytes(out, stored.encoded());
+                }
+                out.writeInt(archived.size());
+                for (var game : archived) {
+                    var summary = game.summary();
+                    out.writeInt(summary.gameID());
+                    writeString(out, summary.gameName());
+                    writeString(out, summary.whiteUsername());
+                    writeString(out, summary.blackUsername());
+                    out.writeInt(summary.moveCount());
+                    out.writeInt(game.revision());
+                    writeBytes(out, game.state());
+                }
+                var crc = new CRC32();
+                crc.update(bytes.toByteArray());
+                out.writeInt((int) crc.getValue());
+
+                var temp = directory.resolve("snapshot.tmp");
+                try (var channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    var buffer = ByteBuffer.wrap(bytes.toByteArray());
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    channel.force(true);
+                }
+                Files.move(temp, directory.resolve("snapshot"), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                log.deleteBefore(nextSegment);
+            } catch (IOException ex) {
+                throw new DataAccessException(String.format("Error: unable to write snapshot: %s", ex.getMessage()), ex);
+            }
+        }
+    }
+
+    private void snapshotIfDue() {
+        if (log.recordsInSegment() < SNAPSHOT_AFTER_RECORDS) {
+            return;
+        }
+        try {
+            snapshot();
+        } catch (DataAccessException ex) {
+            System.out.println("Snapshot failed: " + ex.getMessage());
+        }
+    }
+
+    @Override
+    public void close() throws DataAccessException {
+        snapshotter.cancel(false);
+        memory.close();
+        try {
+            log.close();
+            directoryLock.channel().close();
+        } catch (IOException ex) {
+            throw new DataAccessException(String.format("Error: unable to close log: %s", ex.getMessage()), ex);
+        }
+    }
+
+    /**
+     * @return the first log segment the snapshot does not cover
+     */
+    private long loadSnapshot() throws IOException {
+        var file = directory.resolve("snapshot");
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            var crc = new CRC32();
+            crc.update(buffer.slice(0, buffer.limit() - 4));
+            if (buffer.getInt(buffer.limit() - 4) != (int) crc.getValue()) {
+                throw new IOException("snapshot checksum does not match");
+            }
+            var version = 0;
+            if (buffer.getInt() != SNAPSHOT_MAGIC || (version = buffer.getInt()) > SNAPSHOT_VERSION) {
+                throw new IOException("not a snapshot this server can read");
+            }
+            var nextSegment = buffer.getLong();
+            memory.reserveGameIDs(buffer.getInt());
+            var users = buffer.getInt();
+            for (int i = 0; i < users; i++) {
+                memory.saveUser(new UserData(readString(buffer), readString(buffer), readString(buffer)));
+            }
+            var auths = buffer.getInt();
+            for (int i = 0; i < auths; i++) {
+                var auth = new AuthData(readString(buffer), readString(buffer));
+                memory.addAuth(auth, buffer.getLong());
+            }
+            var games = buffer.getInt();
+            for (int i = 0; i < games; i++) {
+                var gameID = buffer.getInt();
+                var gameName = readString(buffer);
+                var whiteUsername = readString(buffer);
+                var blackUsername = readString(buffer);
+                var revision = buffer.getInt();
+                var game = GameCodec.decode(readBytes(buffer));
+                memory.putGame(new GameData(gameID, whiteUsername, blackUsername, gameName, game), revision);
+            }
+            // version 1 snapshots were written before games were archived
+            var archived = version < 2 ? 0 : buffer.getInt();
+            for (int i = 0; i < archived; i++) {
+                var summary = new GameSummary(buffer.getInt(), readString(buffer), readString(buffer), readString(buffer),
+                        GameSummary.Status.FINISHED, buffer.getInt());
+                var revision = buffer.getInt();
+                memory.putArchivedGame(new MemoryDataAccess.ArchivedGame(summary, revision, readBytes(buffer)));
+            }
+            return nextSegment;
+        } catch (DataAccessException | InvalidMoveException ex) {
+            throw new IOException("snapshot is corrupt: " + ex.getMessage(), ex);
+        }
+    }
+
+    private void replay(ByteBuffer record) {
+        try {
+            switch (record.get()) {
+                case USER -> memory.saveUser(new UserData(readString(record), readString(record), readString(record)));
+                case AUTH_ADD -> {
+                    var auth = new AuthData(readString(record), readString(record));
+                    var expiresAt = record.getLong();
+                    if (expiresAt > System.currentTimeMillis()) {
+                        memory.addAuth(auth, expiresAt);
+                    }
+                }
+                case AUTH_DELETE -> memory.deleteAuth(readString(record));
+                case GAME_CREATE -> {
+                    var gameID = record.getInt();
+                    memory.putGame(new GameData(gameID, null, null, readString(record), new ChessGame()), 0);
+                }
+                case SEAT -> {
+                    var gameID = record.getInt();
+                    var color = ChessGame.TeamColor.values()[record.get()];
+                    var username = readString(record);
+                    if (username == null) {
+                        memory.removeFromGame(gameID, color);
+                    } else {
+                        memory.addPlayerToGame(username, color, gameID);
+                    }
+                }
+                case GAME_STATE -> {
+                    var gameID = record.getInt();
+                    var gameName = readString(record);
+                    var whiteUsername = readString(record);
+                    var blackUsername = readString(record);
+                    var game = GameCodec.decode(readBytes(record));
+                    memory.updateGame(new GameData(gameID, whiteUsername, blackUsername, gameName, game));
+                }
+                case MOVE -> {
+                    var gameData = memory.getGame(record.getInt());
+                    GameCodec.replay(gameData.game(), record.getShort() & 0xFFFF);
+                    gameData.game().setGameOver(record.get() != 0);
+                    memory.updateGame(gameData);
+                }
+                case CLEAR -> memory.clearData();
+                case ARCHIVE -> memory.archiveGame(record.getInt());
+                case PASSWORD -> memory.updatePassword(readString(record), readString(record));
+                default -> throw new IllegalStateException("unknown log record type");
+            }
+        } catch (DataAccessException | InvalidMoveException ex) {
+            throw new IllegalStateException("log record does not replay: " + ex.getMessage(), ex);
+        }
+    }
+
+    private boolean write(Integer gameID, Change change) throws DataAccessException {
+        var sequence = append(gameID, change);
+        sync(sequence);
+        return sequence != 0;
+    }
+
+    /**
+     * @return the log sequence number of the change, or 0 if nothing changed
+     */
+    private long append(Integer gameID, Change change) throws DataAccessException {
+        checkpointLock.readLock().lock();
+        try {
+            memory();
+            if (gameID == null) {
+                return appendRecord(change.apply());
+            }
+            synchronized (stripes[Math.floorMod(gameID, LOCK_STRIPES)]) {
+                return appendRecord(change.apply());
+            }
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+    }
+
+    private long appendRecord(byte[] record) throws DataAccessException {
+        try {
+            return record == null ? 0 : log.append(record);
+        } catch (IOException ex) {
+            throw new DataAccessException(String.format("Error: unable to write log: %s", ex.getMessage()), ex);
+        }
+    }
+
+    /**
+     * The in-memory state, as long as the log has kept up with it.
+     */
+    private MemoryDataAccess memory() throws DataAccessException {
+        try {
+            log.checkHealthy();
+        } catch (IOException ex) {
+            throw new DataAccessException(String.format("Error: data store stopped: %s", ex.getMessage()), ex);
+        }
+        return memory;
+    }
+
+    private void sync(long sequence) throws DataAccessException {
+        if (sequence == 0) {
+            return;
+        }
+        try {
+            log.sync(sequence);
+        } catch (IOException ex) {
+            throw new DataAccessException(String.format("Error: unable to write log: %s", ex.getMessage()), ex);
+        }
+    }
+
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static byte[] record(byte type, RecordWriter writer) throws DataAccessException {
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(type);
+            writer.write(out);
+        } catch (IOException ex) {
+            throw new DataAccessException(String.format("Error: unable to encode log record: %s", ex.getMessage()), ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        var bytes = readBytes(buffer);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer) {
+        var length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        var bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,53 @@
+package dataaccess;
+
+import chess.ChessGame;
+import chess.GameCodec;
+import chess.InvalidMoveException;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * How archived games are stored: the GameCodec encoding, deflated. Archived games are
+ * written once and rarely read, so they are worth the extra squeeze.
+ */
+class GameArchive {
+    private GameArchive() {
+    }
+
+    static byte[] compress(ChessGame game) {
+        var deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        deflater.setInput(GameCodec.encode(game));
+        deflater.finish();
+        var out = new ByteArrayOutputStream();
+        var buffer = new byte[512];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    static ChessGame decompress(byte[] bytes) throws DataAccessException {
+        var inflater = new Inflater(true);
+        inflater.setInput(bytes);
+        var out = new ByteArrayOutputStream();
+        var buffer = new byte[512];
+        try {
+            while (!inflater.finished()) {
+                var read = inflater.inflate(buffer);
+                if (read == 0 && inflater.needsInput()) {
+                    break;
+                }
+                out.write(buffer, 0, read);
+            }
+            return GameCodec.decode(out.toByteArray());
+        } catch (DataFormatException | InvalidMoveException ex) {
+            throw new DataAccessException("Error: archived game is corrupt", ex);
+        } finally {
+            inflater.end();
+        }
+    }
+}
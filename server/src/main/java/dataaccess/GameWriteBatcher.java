@@ -0,0 +1,196 @@
+package dataaccess;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Commits moves from every handler thread together. A single writer thread waits for
+ * the first move, gives others a short window to join it, and then writes the whole
+ * batch in one transaction, so a burst of moves costs one commit instead of one each.
+ * Each caller's future completes once the transaction holding its move commits.
+ * <p>
+ * If the writer thread dies, the moves it holds and any still queued are failed, and
+ * the next submit starts a new writer.
+ */
+class GameWriteBatcher {
+    private static final String SNAPSHOT_UPDATE = "UPDATE game SET gameState=?, moveCount=?, finished=?, snapshotPly=?, revision=revision+1 WHERE gameID=? AND revision=?";
+    private static final String UPDATE = "UPDATE game SET moveCount=?, finished=?, revision=revision+1 WHERE gameID=? AND revision=?";
+    private static final String INSERT_MOVE = "INSERT INTO game_move (gameID, ply, move) VALUES (?, ?, ?)";
+
+    /**
+     * @param snapshot the encoded game if this move should also rewrite the game row, otherwise null
+     */
+    record PendingMove(int gameID, int ply, int move, boolean finished, byte[] snapshot, int expectedVersion,
+                       CompletableFuture<Boolean> result) {
+    }
+
+    interface ConnectionSource {
+        Connection open() throws DataAccessException;
+    }
+
+    private final LinkedBlockingQueue<PendingMove> queue = new LinkedBlockingQueue<>();
+    private final ConnectionSource connections;
+    private final int maxBatch;
+    private final long windowNanos;
+    private Thread writer;
+
+    GameWriteBatcher(int maxBatch, Duration window) {
+        this(maxBatch, window, DatabaseManager::getConnection);
+    }
+
+    GameWriteBatcher(int maxBatch, Duration window, ConnectionSource connections) {
+        this.connections = connections;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.windowNanos = window.toNanos();
+        startWriter();
+    }
+
+    /**
+     * @return completes with false if the game's revision was no longer expectedVersion
+     */
+    CompletableFuture<Boolean> submit(int gameID, int ply, int move, boolean finished, byte[] snapshot, int expectedVersion) {
+        var pending = new PendingMove(gameID, ply, move, finished, snapshot, expectedVersion, new CompletableFuture<>());
+        queue.add(pending);
+        startWriter();
+        return pending.result();
+    }
+
+    private synchronized void startWriter() {
+        if (writer != null && writer.isAlive()) {
+            return;
+        }
+        writer = new Thread(this::run, "game-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private void run() {
+        var batch = new ArrayList<PendingMove>();
+        try {
+            while (true) {
+                try {
+                    batch.add(queue.take());
+                    var deadline = System.nanoTime() + windowNanos;
+                    while (batch.size() < maxBatch) {
+                        var next = queue.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                    }
+                    write(batch);
+                } catch (RuntimeException ex) {
+                    fail(batch, ex);
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException ex) {
+            fail(batch, ex);
+            failQueued(ex);
+        } catch (Error ex) {
+            fail(batch, ex);
+            failQueued(ex);
+            throw ex;
+        }
+    }
+
+    private void fail(List<PendingMove> batch, Throwable cause) {
+        for (var pending : batch) {
+            pending.result().completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Fails every move still waiting, since nothing will write them once this writer stops.
+     */
+    private void failQueued(Throwable cause) {
+        PendingMove queued;
+        while ((queued = queue.poll()) != null) {
+            queued.result().completeExceptionally(cause);
+        }
+    }
+
+    private void write(List<PendingMove> batch) {
+        try {
+            commit(batch);
+        } catch (DataAccessException | SQLException ex) {
+            if (batch.size() == 1) {
+                batch.getFirst().result().completeExceptionally(ex);
+                return;
+            }
+            // one bad move must not fail the moves it happened to be batched with
+            for (var pending : batch) {
+                write(List.of(pending));
+            }
+        }
+    }
+
+    private void commit(List<PendingMove> batch) throws DataAccessException, SQLException {
+        var applied = new boolean[batch.size()];
+        try (Connection conn = connections.open()) {
+            conn.setAutoCommit(false);
+            // snapshot rows first, so a plain move that follows one in the same batch sees its revision
+            try (PreparedStatement snapshots = conn.prepareStatement(SNAPSHOT_UPDATE);
+                 PreparedStatement updates = conn.prepareStatement(UPDATE)) {
+                var snapshotIndexes = new ArrayList<Integer>();
+                var updateIndexes = new ArrayList<Integer>();
+                for (int i = 0; i < batch.size(); i++) {
+                    var pending = batch.get(i);
+                    if (pending.snapshot() != null) {
+                        snapshots.setBytes(1, pending.snapshot());
+                        snapshots.setInt(2, pending.ply());
+                        snapshots.setBoolean(3, pending.finished());
+                        snapshots.setInt(4, pending.ply());
+                        snapshots.setInt(5, pending.gameID());
+                        snapshots.setInt(6, pending.expectedVersion());
+                        snapshots.addBatch();
+                        snapshotIndexes.add(i);
+                    } else {
+                        updates.setInt(1, pending.ply());
+                        updates.setBoolean(2, pending.finished());
+                        updates.setInt(3, pending.gameID());
+                        updates.setInt(4, pending.expectedVersion());
+                        updates.addBatch();
+                        updateIndexes.add(i);
+                    }
+                }
+                markApplied(snapshotIndexes.isEmpty() ? new int[0] : snapshots.executeBatch(), snapshotIndexes, applied);
+                markApplied(updateIndexes.isEmpty() ? new int[0] : updates.executeBatch(), updateIndexes, applied);
+            }
+            try (PreparedStatement inserts = conn.prepareStatement(INSERT_MOVE)) {
+                var any = false;
+                for (int i = 0; i < batch.size(); i++) {
+                    if (!applied[i]) {
+                        continue;
+                    }
+                    var pending = batch.get(i);
+                    inserts.setInt(1, pending.gameID());
+                    inserts.setInt(2, pending.ply());
+                    inserts.setInt(3, pending.move());
+                    inserts.addBatch();
+                    any = true;
+                }
+                if (any) {
+                    inserts.executeBatch();
+                }
+            }
+            conn.commit();
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).result().complete(applied[i]);
+        }
+    }
+
+    private void markApplied(int[] counts, List<Integer> indexes, boolean[] applied) {
+        for (int i = 0; i < counts.length; i++) {
+            applied[indexes.get(i)] = counts[i] == 1;
+        }
+    }
+}
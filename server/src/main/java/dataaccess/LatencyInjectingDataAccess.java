@@ -0,0 +1,232 @@
+package dataaccess;
+
+import chess.ChessGame;
+import chess.ChessMove;
+import model.AuthData;
+import model.GameData;
+import model.GameSummary;
+import model.UserData;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Wraps another DataAccess and makes it slow and unreliable on purpose, so the server
+ * can be load tested against a database having a bad day without needing one. Each
+ * method can have its own profile; "*" covers every method without one.
+ * <p>
+ * A profile is written median[/p99[/failureRate]], e.g. {@code getGame=2ms/50ms/0.01}.
+ * Delays follow a log-normal distribution through the median and p99, which has the
+ * long right tail real database latency has. Failures throw before the call reaches
+ * the wrapped store.
+ */
+public class LatencyInjectingDataAccess implements DataAccess {
+    // the standard normal's 99th percentile
+    private static final double Z99 = 2.326;
+
+    private final DataAccess delegate;
+    private final Map<String, Profile> profiles;
+
+    public record Profile(Duration median, Duration p99, double failureRate) {
+        long sampleNanos() {
+            var median = this.median.toNanos();
+            var p99 = this.p99.toNanos();
+            if(median <= 0 || p99 <= median) {
+                return median;
+            }
+            var sigma = Math.log((double) p99 / median) / Z99;
+            return (long) (median * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian()));
+        }
+    }
+
+    public LatencyInjectingDataAccess(DataAccess delegate, Map<String, Profile> profiles) {
+        this.delegate = delegate;
+        this.profiles = Map.copyOf(profiles);
+    }
+
+    /**
+     * Reads profiles written as a comma separated list, e.g.
+     * {@code *=1ms/10ms,getGame=5ms/50ms/0.01,findAuth=500us}.
+     */
+    public static Map<String, Profile> parse(String spec) {
+        var res = new HashMap<String, Profile>();
+        for(var entry : spec.split(",")) {
+            if(entry.isBlank()) {
+                continue;
+            }
+            var keyValue = entry.split("=", 2);
+            if(keyValue.length != 2) {
+                throw new IllegalArgumentException("expected method=profile but got " + entry);
+            }
+            var parts = keyValue[1].trim().split("/");
+            var median = parseDuration(parts[0]);
+            var p99 = parts.length > 1 ? parseDuration(parts[1]) : median;
+            var failureRate = parts.length > 2 ? Double.parseDouble(parts[2]) : 0;
+            res.put(keyValue[0].trim(), new Profile(median, p99, failureRate));
+        }
+        return res;
+    }
+
+    private static Duration parseDuration(String text) {
+        text = text.trim();
+        var digits = text.replaceAll("[a-z]+$", "");
+        var value = Double.parseDouble(digits);
+        var nanos = switch(text.substring(digits.length())) {
+            case "us" -> value * 1e3;
+            case "ms" -> value * 1e6;
+            case "s" -> value * 1e9;
+            default -> throw new IllegalArgumentException("expected a unit of us, ms or s in " + text);
+        };
+        return Duration.ofNanos((long) nanos);
+    }
+
+    private void inject(String method) throws DataAccessException {
+        var profile = profiles.getOrDefault(method, profiles.get("*"));
+        if(profile == null) {
+            return;
+        }
+        var delay = profile.sampleNanos();
+        if(delay > 0) {
+            LockSupport.parkNanos(delay);
+        }
+        if(profile.failureRate() > 0 && ThreadLocalRandom.current().nextDouble() < profile.failureRate()) {
+            throw new DataAccessException(String.format("Error: injected failure in %s", method));
+        }
+    }
+
+    @Override
+    public void saveUser(UserData userData) throws DataAccessException {
+        inject("saveUser");
+        delegate.saveUser(userData);
+    }
+
+    @Override
+    public UserData getUser(String username) throws DataAccessException {
+        inject("getUser");
+        return delegate.getUser(username);
+    }
+
+    @Override
+    public void updatePassword(String username, String passwordHash) throws DataAccessException {
+        inject("updatePassword");
+        delegate.updatePassword(username, passwordHash);
+    }
+
+    @Override
+    public void clearData() throws DataAccessException {
+        inject("clearData");
+        delegate.clearData();
+    }
+
+    @Override
+    public String findAuth(String authKey) throws DataAccessException {
+        inject("findAuth");
+        return delegate.findAuth(authKey);
+    }
+
+    @Override
+    public void deleteAuth(String authKey) throws DataAccessException {
+        inject("deleteAuth");
+        delegate.deleteAuth(authKey);
+    }
+
+    @Override
+    public void addAuth(AuthData authData) throws DataAccessException {
+        inject("addAuth");
+        delegate.addAuth(authData);
+    }
+
+    @Override
+    public ArrayList<GameData> listGames() throws DataAccessException {
+        inject("listGames");
+        return delegate.listGames();
+    }
+
+    @Override
+    public ArrayList<GameSummary> listGameSummaries(int afterGameID, int limit, Boolean openSeats, GameSummary.Status status) throws DataAccessException {
+        inject("listGameSummaries");
+        return delegate.listGameSummaries(afterGameID, limit, openSeats, status);
+    }
+
+    @Override
+    public boolean gameExists(int gameID) throws DataAccessException {
+        inject("gameExists");
+        return delegate.gameExists(gameID);
+    }
+
+    @Override
+    public int createGame(String gameName) throws DataAccessException {
+        inject("createGame");
+        return delegate.createGame(gameName);
+    }
+
+    @Override
+    public ArrayList<Integer> createGames(List<String> gameNames) throws DataAccessException {
+        inject("createGames");
+        return delegate.createGames(gameNames);
+    }
+
+    @Override
+    public GameData getGame(int gameID) throws DataAccessException {
+        inject("getGame");
+        return delegate.getGame(gameID);
+    }
+
+    @Override
+    public Integer getGameRevision(int gameID) throws DataAccessException {
+        inject("getGameRevision");
+        return delegate.getGameRevision(gameID);
+    }
+
+    @Override
+    public boolean addPlayerToGame(String username, ChessGame.TeamColor playerColor, int gameID) throws DataAccessException {
+        inject("addPlayerToGame");
+        return delegate.addPlayerToGame(username, playerColor, gameID);
+    }
+
+    @Override
+    public void removeFromGame(int gameID, ChessGame.TeamColor teamColor) throws DataAccessException {
+        inject("removeFromGame");
+        delegate.removeFromGame(gameID, teamColor);
+    }
+
+    @Override
+    public void updateGame(GameData gameData) throws DataAccessException {
+        inject("updateGame");
+        delegate.updateGame(gameData);
+    }
+
+    @Override
+    public boolean updateGame(GameData gameData, int expectedVersion) throws DataAccessException {
+        inject("updateGame");
+        return delegate.updateGame(gameData, expectedVersion);
+    }
+
+    @Override
+    public boolean recordMove(GameData gameData, ChessMove move, int expectedVersion) throws DataAccessException {
+        inject("recordMove");
+        return delegate.recordMove(gameData, move, expectedVersion);
+    }
+
+    @Override
+    public int archiveFinishedGames(int limit) throws DataAccessException {
+        inject("archiveFinishedGames");
+        return delegate.archiveFinishedGames(limit);
+    }
+
+    @Override
+    public ArrayList<GameSummary> listArchivedGames(String username, int afterGameID, int limit) throws DataAccessException {
+        inject("listArchivedGames");
+        return delegate.listArchivedGames(username, afterGameID, limit);
+    }
+
+    @Override
+    public void close() throws DataAccessException {
+        delegate.close();
+    }
+}
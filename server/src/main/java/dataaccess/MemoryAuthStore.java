@@ -0,0 +1,129 @@
+package dataaccess;
+
+import model.AuthData;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Auth tokens held in memory with a sliding expiry. Every use of a token pushes its
+ * expiry out by the TTL. Expired tokens are evicted by a hashed timer wheel: each
+ * token sits in the slot for its expiry time, and each tick only looks at one slot.
+ */
+class MemoryAuthStore {
+    private static final long TICK_MILLIS = 1000;
+    private static final int SLOTS = 3600;
+
+    private final ConcurrentHashMap<String, Entry> tokens = new ConcurrentHashMap<>();
+    private final ArrayList<Set<String>> wheel = new ArrayList<>(SLOTS);
+    private final long ttlMillis;
+    private final ScheduledFuture<?> sweeper;
+    private long lastTick;
+
+    private static class Entry {
+        private final String username;
+        private volatile long expiresAt;
+
+        private Entry(String username, long expiresAt) {
+            this.username = username;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    MemoryAuthStore(Duration ttl) {
+        ttlMillis = ttl.toMillis();
+        for (int i = 0; i < SLOTS; i++) {
+            wheel.add(ConcurrentHashMap.newKeySet());
+        }
+        lastTick = System.currentTimeMillis() / TICK_MILLIS;
+        sweeper = BackgroundSweeper.schedule(this::sweep, Duration.ofMillis(TICK_MILLIS));
+    }
+
+    record LiveToken(String authToken, String username, long expiresAt) {
+    }
+
+    void add(AuthData authData) {
+        add(authData, System.currentTimeMillis() + ttlMillis);
+    }
+
+    void add(AuthData authData, long expiresAt) {
+        tokens.put(authData.authToken(), new Entry(authData.username(), expiresAt));
+        slotFor(expiresAt).add(authData.authToken());
+    }
+
+    String find(String authToken) {
+        var entry = tokens.get(authToken);
+        if (entry == null) {
+            return null;
+        }
+        var now = System.currentTimeMillis();
+        if (entry.expiresAt <= now) {
+            tokens.remove(authToken, entry);
+            return null;
+        }
+        // the wheel is not touched here; the sweeper moves the token when it reaches the old slot
+        entry.expiresAt = now + ttlMillis;
+        return entry.username;
+    }
+
+    ArrayList<LiveToken> live() {
+        var now = System.currentTimeMillis();
+        var res = new ArrayList<LiveToken>();
+        tokens.forEach((authToken, entry) -> {
+            if (entry.expiresAt > now) {
+                res.add(new LiveToken(authToken, entry.username, entry.expiresAt));
+            }
+        });
+        return res;
+    }
+
+    long ttlMillis() {
+        return ttlMillis;
+    }
+
+    void remove(String authToken) {
+        tokens.remove(authToken);
+    }
+
+    void clear() {
+        tokens.clear();
+        for (var slot : wheel) {
+            slot.clear();
+        }
+    }
+
+    void close() {
+        sweeper.cancel(false);
+    }
+
+    private Set<String> slotFor(long expiresAt) {
+        // the first tick that starts after the expiry, so a visit never finds the token still live
+        return wheel.get((int) ((expiresAt / TICK_MILLIS + 1) % SLOTS));
+    }
+
+    private synchronized void sweep() {
+        var now = System.currentTimeMillis();
+        var currentTick = now / TICK_MILLIS;
+        // if the sweeper fell behind, catch up without going round the wheel more than once
+        var fromTick = Math.max(lastTick + 1, currentTick - SLOTS + 1);
+        for (var tick = fromTick; tick <= currentTick; tick++) {
+            var slot = wheel.get((int) (tick % SLOTS));
+            for (var authToken : slot) {
+                var entry = tokens.get(authToken);
+                if (entry == null) {
+                    slot.remove(authToken);
+                } else if (entry.expiresAt <= now) {
+                    slot.remove(authToken);
+                    tokens.remove(authToken, entry);
+                } else if (slotFor(entry.expiresAt) != slot) {
+                    slot.remove(authToken);
+                    slotFor(entry.expiresAt).add(authToken);
+                }
+            }
+        }
+        lastTick = currentTick;
+    }
+}
@@ -1,19 +1,54 @@
 package dataaccess;
 
 import chess.ChessGame;
+import chess.ChessMove;
+import chess.GameCodec;
+import chess.InvalidMoveException;
+import chess.MoveEncoding;
 import com.google.gson.Gson;
 import model.AuthData;
 import model.GameData;
+import model.GameSummary;
 import model.UserData;
 import java.sql.*;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static java.sql.Types.NULL;
 
 public class MySqlDataAccess implements DataAccess{
+    private static final int SWEEP_BATCH_SIZE = 500;
+    private static final int SNAPSHOT_INTERVAL = 32;
+    private static final int CREATE_BATCH_SIZE = 500;
+    // every game starts from the same position, so it is encoded once
+    private static final byte[] START_STATE = GameCodec.encode(new ChessGame());
+    private static final Duration SWEEP_PERIOD = Duration.ofMinutes(1);
+    // a last resort if the move writer stalls; the move may still commit after this gives up
+    private static final Duration MOVE_WRITE_TIMEOUT = Duration.ofSeconds(30);
+    private static final AtomicBoolean SWEEPER_STARTED = new AtomicBoolean(false);
+    // one writer for every instance, so moves from all of them share commits
+    private static GameWriteBatcher moveWriter;
+
+    private final long authTtlMillis;
 
     public MySqlDataAccess() throws DataAccessException {
+        this(DEFAULT_AUTH_TTL);
+    }
+
+    public MySqlDataAccess(Duration authTtl) throws DataAccessException {
+        authTtlMillis = authTtl.toMillis();
         configureDatabase();
+        // expiry times live in the rows, so one sweeper serves every instance
+        if (SWEEPER_STARTED.compareAndSet(false, true)) {
+            BackgroundSweeper.schedule(this::sweepExpiredAuths, SWEEP_PERIOD);
+        }
     }
 
     @Override
@@ -22,21 +57,30 @@ public class MySqlDataAccess implements DataAccess{
         executeUpdate(statement, userData.username(), userData.password(), userData.email());
     }
 
+    @Override
+    public void updatePassword(String username, String passwordHash) throws DataAccessException {
+        executeUpdate("UPDATE user SET password=? WHERE username=?", passwordHash, username);
+    }
+
     private void executeUpdate(String statement, Object... params) throws DataAccessException {
+        executeUpdateCount(statement, params);
+    }
+
+    private int executeUpdateCount(String statement, Object... params) throws DataAccessException {
         try (Connection conn = DatabaseManager.getConnection()) {
             try (PreparedStatement ps = conn.prepareStatement(statement)) {
                 for (int i = 0; i < params.length; i++) {
-                    Object param = params[i];
-                    switch (param) {
+                    switch (params[i]) {
                         case String p -> ps.setString(i + 1, p);
                         case Integer p -> ps.setInt(i + 1, p);
-
-                        //else if (param instanceof PetType p) ps.setString(i + 1, p.toString());
+                        case Long p -> ps.setLong(i + 1, p);
+                        case Boolean p -> ps.setBoolean(i + 1, p);
+                        case byte[] p -> ps.setBytes(i + 1, p);
                         case null -> ps.setNull(i + 1, NULL);
-                        default -> throw new IllegalStateException("Unexpected value: " + param);
+                        default -> throw new IllegalStateException("Unexpected value: " + params[i]);
                     }
                 }
-                ps.executeUpdate();
+                return ps.executeUpdate();
             }
         } catch (Exception e) {
             throw new DataAccessException(String.format("Error: unable to update database: %s, %s", statement, e.getMessage()));
@@ -51,6 +95,9 @@ public class MySqlDataAccess implements DataAccess{
                     if (param instanceof String p) {
                         ps.setString(i + 1, p);
                     }
+                    else if (param instanceof byte[] p) {
+                        ps.setBytes(i + 1, p);
+                    }
                     else if (param == null) {
                         ps.setNull(i + 1, NULL);
                     }
@@ -99,7 +146,7 @@ public class MySqlDataAccess implements DataAccess{
 
     @Override
     public void clearData() throws DataAccessException {
-        var statements = new String[]{"TRUNCATE user", "TRUNCATE game", "TRUNCATE auth"};
+        var statements = new String[]{"TRUNCATE user", "TRUNCATE game", "TRUNCATE auth", "TRUNCATE game_move", "TRUNCATE game_archive"};
         for(var statement : statements) {
             executeUpdate(statement);
         }
@@ -107,21 +154,36 @@ public class MySqlDataAccess implements DataAccess{
 
     @Override
     public String findAuth(String authKey) throws DataAccessException{
+        var now = System.currentTimeMillis();
         try (Connection conn = DatabaseManager.getConnection()) {
-            var statement = "SELECT authToken, username FROM auth WHERE authToken=?";
+            var statement = "SELECT username, expiresAt FROM auth WHERE authToken=? AND expiresAt > ?";
             try (PreparedStatement ps = conn.prepareStatement(statement)) {
                 ps.setString(1, authKey);
+                ps.setLong(2, now);
+                String username;
+                long expiresAt;
                 try (ResultSet rs = ps.executeQuery()) {
-                    if (rs.next()) {
-                        return rs.getString("username");
+                    if (!rs.next()) {
+                        return null;
+                    }
+                    username = rs.getString("username");
+                    expiresAt = rs.getLong("expiresAt");
+                }
+                // slide the expiry at most once per half TTL so a busy token is not a write on every read
+                if (expiresAt - now < authTtlMillis / 2) {
+                    // on this connection: borrowing a second one while holding this can starve a full pool
+                    try (PreparedStatement update = conn.prepareStatement("UPDATE auth SET expiresAt=? WHERE authToken=?")) {
+                        update.setLong(1, now + authTtlMillis);
+                        update.setString(2, authKey);
+                        update.executeUpdate();
                     }
                 }
+                return username;
             }
         }
         catch(Exception e) {
             throw new DataAccessException(String.format("Error: unable to update database: %s", e.getMessage()));
         }
-        return null;
     }
 
     @Override
@@ -139,16 +201,34 @@ public class MySqlDataAccess implements DataAccess{
 
     @Override
     public void addAuth(AuthData authData) throws DataAccessException {
-        var statement = "INSERT INTO auth (authToken, username) VALUES (?, ?)";
-        executeUpdate(statement, authData.authToken(), authData.username());
+        var statement = "INSERT INTO auth (authToken, username, expiresAt) VALUES (?, ?, ?)";
+        executeUpdate(statement, authData.authToken(), authData.username(), System.currentTimeMillis() + authTtlMillis);
 
     }
 
+    /**
+     * Deletes expired tokens in small batches so the sweep never holds long locks on
+     * the auth table.
+     */
+    private void sweepExpiredAuths() {
+        try {
+            var now = System.currentTimeMillis();
+            var statement = "DELETE FROM auth WHERE expiresAt <= ? LIMIT " + SWEEP_BATCH_SIZE;
+            int deleted;
+            do {
+                deleted = executeUpdateCount(statement, now);
+            } while (deleted == SWEEP_BATCH_SIZE);
+        } catch (DataAccessException e) {
+            System.out.println("Unable to sweep expired auth tokens: " + e.getMessage());
+        }
+    }
+
     @Override
     public ArrayList<GameData> listGames() throws DataAccessException{
         var res = new ArrayList<GameData>();
         try (Connection conn = DatabaseManager.getConnection()) {
-            var statement = "SELECT gameID, whiteUsername, blackUsername, gameName, gameJson FROM game";
+            var games = new HashMap<Integer, ChessGame>();
+            var statement = "SELECT gameID, whiteUsername, blackUsername, gameName, gameState, finished FROM game";
             try (PreparedStatement ps = conn.prepareStatement(statement)) {
                 try (ResultSet rs = ps.executeQuery()) {
                     while(rs.next()) {
@@ -156,35 +236,125 @@ public class MySqlDataAccess implements DataAccess{
                         String whiteUsername = rs.getString("whiteUsername");
                         String blackUsername = rs.getString("blackUsername");
                         String gameName = rs.getString("gameName");
-                        String gameJson = rs.getString("gameJson");
-                        var game = new Gson().fromJson(gameJson, ChessGame.class);
+                        var game = GameCodec.decode(rs.getBytes("gameState"));
+                        // moves after the snapshot may have ended the game, which replaying does not work out
+                        game.setGameOver(rs.getBoolean("finished"));
+                        games.put(gameID, game);
                         res.add(new GameData(gameID, whiteUsername, blackUsername, gameName, game));
                     }
                 }
             }
+            // one query for every game's unsnapshotted moves rather than one per game
+            statement = """
+                    SELECT m.gameID, m.move FROM game_move m JOIN game g ON m.gameID = g.gameID
+                    WHERE m.ply > g.snapshotPly ORDER BY m.gameID, m.ply""";
+            try (PreparedStatement ps = conn.prepareStatement(statement)) {
+                try (ResultSet rs = ps.executeQuery()) {
+                    while(rs.next()) {
+                        GameCodec.replay(games.get(rs.getInt("gameID")), rs.getInt("move"));
+                    }
+                }
+            }
+        } catch(Exception e) {
+            throw new DataAccessException(String.format("Error: unable to update database: %s", e.getMessage()));
+        }
+        return res;
+    }
+
+    @Override
+    public ArrayList<GameSummary> listGameSummaries(int afterGameID, int limit, Boolean openSeats, GameSummary.Status status) throws DataAccessException {
+        var res = new ArrayList<GameSummary>();
+        var statement = new StringBuilder("SELECT gameID, gameName, whiteUsername, blackUsername, finished, moveCount FROM game WHERE gameID > ?");
+        if(openSeats != null) {
+            statement.append(" AND openSeat = ?");
+        }
+        if(status != null) {
+            statement.append(" AND finished = ?");
+        }
+        statement.append(" ORDER BY gameID LIMIT ?");
+        try (Connection conn = DatabaseManager.getConnection()) {
+            try (PreparedStatement ps = conn.prepareStatement(statement.toString())) {
+                var index = 1;
+                ps.setInt(index++, afterGameID);
+                if(openSeats != null) {
+                    ps.setBoolean(index++, openSeats);
+                }
+                if(status != null) {
+                    ps.setBoolean(index++, status == GameSummary.Status.FINISHED);
+                }
+                ps.setInt(index, limit);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while(rs.next()) {
+                        var gameStatus = rs.getBoolean("finished") ? GameSummary.Status.FINISHED : GameSummary.Status.IN_PROGRESS;
+                        res.add(new GameSummary(rs.getInt("gameID"), rs.getString("gameName"), rs.getString("whiteUsername"),
+                                rs.getString("blackUsername"), gameStatus, rs.getInt("moveCount")));
+                    }
+                }
+            }
         } catch(Exception e) {
             throw new DataAccessException(String.format("Error: unable to update database: %s", e.getMessage()));
         }
         return res;
     }
 
+    @Override
+    public boolean gameExists(int gameID) throws DataAccessException {
+        try (Connection conn = DatabaseManager.getConnection()) {
+            var statement = "SELECT 1 FROM game WHERE gameID=? UNION ALL SELECT 1 FROM game_archive WHERE gameID=?";
+            try (PreparedStatement ps = conn.prepareStatement(statement)) {
+                ps.setInt(1, gameID);
+                ps.setInt(2, gameID);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next();
+                }
+            }
+        } catch (Exception e) {
+            throw new DataAccessException(String.format("Error: unable to update database: %s", e.getMessage()));
+        }
+    }
+
     @Override
     public int createGame(String gameName) throws DataAccessException {
-        var statement = "INSERT INTO game (whiteUsername, blackUsername, gameName, gameJson) VALUES (?, ?, ?, ?)";
-        var gameJson = "";
-        var gameID =  executeUpdateGetID(statement, null, null, gameName, gameJson);
-        var game = new ChessGame();
-        var gameData = new GameData(gameID,null,null,gameName,game);
-        gameJson = new Gson().toJson(gameData);
-        statement = "UPDATE game SET gameJson=? WHERE gameID=?";
-        executeUpdate(statement, gameJson, gameID);
-        return gameID;
+        var statement = "INSERT INTO game (gameName, gameState) VALUES (?, ?)";
+        return executeUpdateGetID(statement, gameName, START_STATE);
+    }
+
+    /**
+     * Inserts the games with multi-row INSERTs of up to CREATE_BATCH_SIZE rows, all in
+     * one transaction, so a whole tournament is created in a handful of round trips.
+     */
+    @Override
+    public ArrayList<Integer> createGames(List<String> gameNames) throws DataAccessException {
+        var gameIDs = new ArrayList<Integer>();
+        try (Connection conn = DatabaseManager.getConnection()) {
+            conn.setAutoCommit(false);
+            for (int from = 0; from < gameNames.size(); from += CREATE_BATCH_SIZE) {
+                var batch = gameNames.subList(from, Math.min(from + CREATE_BATCH_SIZE, gameNames.size()));
+                var statement = "INSERT INTO game (gameName, gameState) VALUES " + String.join(", ", Collections.nCopies(batch.size(), "(?, ?)"));
+                try (PreparedStatement ps = conn.prepareStatement(statement, Statement.RETURN_GENERATED_KEYS)) {
+                    for (int i = 0; i < batch.size(); i++) {
+                        ps.setString(2 * i + 1, batch.get(i));
+                        ps.setBytes(2 * i + 2, START_STATE);
+                    }
+                    ps.executeUpdate();
+                    try (ResultSet rs = ps.getGeneratedKeys()) {
+                        while (rs.next()) {
+                            gameIDs.add(rs.getInt(1));
+                        }
+                    }
+                }
+            }
+            conn.commit();
+        } catch (Exception e) {
+            throw new DataAccessException(String.format("Error: unable to update database: %s", e.getMessage()));
+        }
+        return gameIDs;
     }
 
     @Override
     public GameData getGame(int gameID) throws DataAccessException{
         try (Connection conn = DatabaseManager.getConnection()) {
-            var statement = "SELECT whiteUsername, blackUsername, gameName, gameJson FROM game WHERE gameID=?";
+            var statement = "SELECT whiteUsername, blackUsername, gameName, gameState, snapshotPly, finished FROM game WHERE gameID=?";
             try (PreparedStatement ps = conn.prepareStatement(statement)) {
                 ps.setInt(1, gameID);
                 try (ResultSet rs = ps.executeQuery()) {
@@ -192,12 +362,42 @@ public class MySqlDataAccess implements DataAccess{
                         String whiteUsername = rs.getString("whiteUsername");
                         String blackUsername = rs.getString("blackUsername");
                         String gameName = rs.getString("gameName");
-                        String gameJson = rs.getString("gameJson");
-                        var game = new Gson().fromJson(gameJson, ChessGame.class);
+                        var game = GameCodec.decode(rs.getBytes("gameState"));
+                        replayMoves(conn, gameID, rs.getInt("snapshotPly"), game);
+                        game.setGameOver(rs.getBoolean("finished"));
                         return new GameData(gameID, whiteUsername, blackUsername, gameName, game);
                     }
                 }
             }
+            var archived = "SELECT whiteUsername, blackUsername, gameName, gameState FROM game_archive WHERE gameID=?";
+            try (PreparedStatement ps = conn.prepareStatement(archived)) {
+                ps.setInt(1, gameID);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next()) {
+                        var game = GameArchive.decompress(rs.getBytes("gameState"));
+                        return new GameData(gameID, rs.getString("whiteUsername"), rs.getString("blackUsername"), rs.getString("gameName"), game);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            throw new DataAccessException(String.format("Error: unable to update database: %s", e.getMessage()));
+        }
+        return null;
+    }
+
+    @Override
+    public Integer getGameRevision(int gameID) throws DataAccessException {
+        try (Connection conn = DatabaseManager.getConnection()) {
+            var statement = "SELECT revision FROM game WHERE gameID=? UNION ALL SELECT revision FROM game_archive WHERE gameID=?";
+            try (PreparedStatement ps = conn.prepareStatement(statement)) {
+                ps.setInt(1, gameID);
+                ps.setInt(2, gameID);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next()) {
+                        return rs.getInt("revision");
+                    }
+                }
+            }
         } catch (Exception e) {
             throw new DataAccessException(String.format("Error: unable to update database: %s", e.getMessage()));
         }
@@ -205,17 +405,27 @@ public class MySqlDataAccess implements DataAccess{
     }
 
     @Override
-    public void addPlayerToGame(String authToken, ChessGame.TeamColor playerColor, int gameID) throws DataAccessException {
-        var username = findAuth(authToken);
+    public boolean addPlayerToGame(String username, ChessGame.TeamColor playerColor, int gameID) throws DataAccessException {
         var statement = "";
-        var gameData = getGame(gameID);
         if(playerColor == ChessGame.TeamColor.BLACK) {
-            statement = "UPDATE game SET blackUsername=?, gameJson=? WHERE gameID=?";
+            statement = "UPDATE game SET blackUsername=?, revision=revision+1 WHERE gameID=? AND blackUsername IS NULL";
         } else if (playerColor == ChessGame.TeamColor.WHITE) {
-            statement = "UPDATE game SET whiteUsername=?, gameJson=? WHERE gameID=?";
+            statement = "UPDATE game SET whiteUsername=?, revision=revision+1 WHERE gameID=? AND whiteUsername IS NULL";
+        }
+        return executeUpdateCount(statement, username, gameID) == 1;
+    }
+
+    private void replayMoves(Connection conn, int gameID, int snapshotPly, ChessGame game) throws SQLException, InvalidMoveException {
+        var statement = "SELECT move FROM game_move WHERE gameID=? AND ply > ? ORDER BY ply";
+        try (PreparedStatement ps = conn.prepareStatement(statement)) {
+            ps.setInt(1, gameID);
+            ps.setInt(2, snapshotPly);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    GameCodec.replay(game, rs.getInt("move"));
+                }
+            }
         }
-        var gameJson = new Gson().toJson(gameData.game());
-        executeUpdate(statement, username, gameJson, gameID);
     }
 
     private final String[] createUserTable = {
@@ -239,7 +449,44 @@ public class MySqlDataAccess implements DataAccess{
             blackUsername varchar(100),
             gameName varchar(100) NOT NULL,
             gameJson TEXT DEFAULT NULL,
-            PRIMARY KEY(gameID)
+            gameState BLOB DEFAULT NULL,
+            revision int NOT NULL DEFAULT 0,
+            moveCount int NOT NULL DEFAULT 0,
+            finished boolean NOT NULL DEFAULT false,
+            snapshotPly int NOT NULL DEFAULT 0,
+            openSeat boolean AS (whiteUsername IS NULL OR blackUsername IS NULL) STORED,
+            PRIMARY KEY(gameID),
+            INDEX lobby_status(finished, gameID),
+            INDEX lobby_open(openSeat, gameID),
+            INDEX lobby_open_status(openSeat, finished, gameID)
+          ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci
+          """
+    };
+
+    private final String[] createGameMoveTable = {
+            """
+            CREATE TABLE IF NOT EXISTS game_move (
+            gameID int NOT NULL,
+            ply int NOT NULL,
+            move int NOT NULL,
+            PRIMARY KEY(gameID, ply)
+          ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci
+          """
+    };
+
+    private final String[] createGameArchiveTable = {
+            """
+            CREATE TABLE IF NOT EXISTS game_archive (
+            gameID int NOT NULL,
+            whiteUsername varchar(100),
+            blackUsername varchar(100),
+            gameName varchar(100) NOT NULL,
+            moveCount int NOT NULL,
+            revision int NOT NULL,
+            gameState BLOB NOT NULL,
+            PRIMARY KEY(gameID),
+            INDEX(whiteUsername, gameID),
+            INDEX(blackUsername, gameID)
           ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci
           """
     };
@@ -247,10 +494,11 @@ public class MySqlDataAccess implements DataAccess{
     private final String[] createAuthTable = {
             """
             CREATE TABLE IF NOT EXISTS auth (
-            authID int NOT NULL AUTO_INCREMENT,
             authToken varchar(100) NOT NULL,
             username varchar(100) NOT NULL,
-            PRIMARY KEY(authID)
+            expiresAt bigint NOT NULL,
+            PRIMARY KEY(authToken),
+            INDEX(expiresAt)
           ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci
           """
     };
@@ -258,7 +506,7 @@ public class MySqlDataAccess implements DataAccess{
     private void configureDatabase() throws DataAccessException {
         DatabaseManager.createDatabase();
         try (Connection conn = DatabaseManager.getConnection()) {
-            var tableStatements = new String[][]{createUserTable, createGameTable, createAuthTable};
+            var tableStatements = new String[][]{createUserTable, createGameTable, createAuthTable, createGameMoveTable, createGameArchiveTable};
             for (String[] table : tableStatements) {
                 for (String statement : table) {
                     try (var preparedStatement = conn.prepareStatement(statement)) {
@@ -266,35 +514,275 @@ public class MySqlDataAccess implements DataAccess{
                     }
                 }
             }
+            addColumnIfMissing(conn, "game", "revision", "int NOT NULL DEFAULT 0");
+            addColumnIfMissing(conn, "game", "moveCount", "int NOT NULL DEFAULT 0");
+            addColumnIfMissing(conn, "game", "finished", "boolean NOT NULL DEFAULT false");
+            addColumnIfMissing(conn, "game", "snapshotPly", "int NOT NULL DEFAULT 0");
+            addColumnIfMissing(conn, "game", "gameState", "BLOB DEFAULT NULL");
+            addColumnIfMissing(conn, "game", "openSeat", "boolean AS (whiteUsername IS NULL OR blackUsername IS NULL) STORED");
+            // the lobby filters read these in gameID order instead of walking every game past the cursor
+            addIndexIfMissing(conn, "game", "lobby_status", "finished, gameID");
+            addIndexIfMissing(conn, "game", "lobby_open", "openSeat, gameID");
+            addIndexIfMissing(conn, "game", "lobby_open_status", "openSeat, finished, gameID");
+            migrateGameJson(conn);
+            migrateAuthTable(conn);
         } catch (Exception ex) {
             throw new DataAccessException(String.format("Error: Unable to configure database: %s", ex.getMessage()));
         }
     }
 
+    /**
+     * Brings tables created by an older version of the server up to date, since
+     * CREATE TABLE IF NOT EXISTS leaves existing tables alone.
+     */
+    private void addColumnIfMissing(Connection conn, String table, String column, String definition) throws SQLException {
+        if (columnExists(conn, table, column)) {
+            return;
+        }
+        try (PreparedStatement ps = conn.prepareStatement(String.format("ALTER TABLE %s ADD COLUMN %s %s", table, column, definition))) {
+            ps.executeUpdate();
+        }
+    }
+
+    private void addIndexIfMissing(Connection conn, String table, String index, String columns) throws SQLException {
+        var query = "SELECT COUNT(*) FROM information_schema.STATISTICS WHERE TABLE_SCHEMA=DATABASE() AND TABLE_NAME=? AND INDEX_NAME=?";
+        try (PreparedStatement ps = conn.prepareStatement(query)) {
+            ps.setString(1, table);
+            ps.setString(2, index);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next() && rs.getInt(1) > 0) {
+                    return;
+                }
+            }
+        }
+        try (PreparedStatement ps = conn.prepareStatement(String.format("ALTER TABLE %s ADD INDEX %s(%s)", table, index, columns))) {
+            ps.executeUpdate();
+        }
+    }
+
+    private boolean columnExists(Connection conn, String table, String column) throws SQLException {
+        var query = "SELECT COUNT(*) FROM information_schema.COLUMNS WHERE TABLE_SCHEMA=DATABASE() AND TABLE_NAME=? AND COLUMN_NAME=?";
+        try (PreparedStatement ps = conn.prepareStatement(query)) {
+            ps.setString(1, table);
+            ps.setString(2, column);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() && rs.getInt(1) > 0;
+            }
+        }
+    }
+
+    /**
+     * Older auth tables were keyed by a surrogate authID with no index on the token.
+     * Existing tokens are kept and given a full TTL from now.
+     */
+    private void migrateAuthTable(Connection conn) throws SQLException {
+        if (!columnExists(conn, "auth", "authID")) {
+            return;
+        }
+        var expiresAt = System.currentTimeMillis() + authTtlMillis;
+        var statements = new String[]{
+                "ALTER TABLE auth DROP COLUMN authID",
+                "ALTER TABLE auth ADD PRIMARY KEY(authToken)",
+                "ALTER TABLE auth ADD COLUMN expiresAt bigint NOT NULL DEFAULT " + expiresAt,
+                "ALTER TABLE auth ALTER COLUMN expiresAt DROP DEFAULT",
+                "ALTER TABLE auth ADD INDEX(expiresAt)"
+        };
+        for (var statement : statements) {
+            try (PreparedStatement ps = conn.prepareStatement(statement)) {
+                ps.executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * Re-encodes games still stored as Gson JSON into the binary gameState column and
+     * drops the JSON, a few hundred rows at a time. The lobby columns are filled in from
+     * the same game, so a legacy game that already ended lists as finished and archives.
+     */
+    private void migrateGameJson(Connection conn) throws SQLException, DataAccessException {
+        var select = "SELECT gameID, gameJson FROM game WHERE gameState IS NULL AND gameJson IS NOT NULL LIMIT 200";
+        var update = "UPDATE game SET gameState=?, moveCount=?, finished=?, gameJson=NULL WHERE gameID=?";
+        var migrated = 0;
+        do {
+            var rows = new HashMap<Integer, String>();
+            try (PreparedStatement ps = conn.prepareStatement(select); ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    rows.put(rs.getInt("gameID"), rs.getString("gameJson"));
+                }
+            }
+            for (var row : rows.entrySet()) {
+                var game = row.getValue().isEmpty() ? null : new Gson().fromJson(row.getValue(), ChessGame.class);
+                if (game == null || game.getBoard() == null) {
+                    // rows written before the game itself was serialized hold no usable state
+                    game = new ChessGame();
+                }
+                try (PreparedStatement ps = conn.prepareStatement(update)) {
+                    ps.setBytes(1, GameCodec.encode(game));
+                    ps.setInt(2, game.getMoveCount());
+                    ps.setBoolean(3, game.gameOver());
+                    ps.setInt(4, row.getKey());
+                    ps.executeUpdate();
+                }
+            }
+            migrated = rows.size();
+        } while (migrated > 0);
+    }
+
     public void deconstructDatabase() throws DataAccessException {
-        var statements = new String[]{"DROP TABLE IF EXISTS user", "DROP TABLE IF EXISTS game", "DROP TABLE IF EXISTS auth"};
+        var statements = new String[]{"DROP TABLE IF EXISTS user", "DROP TABLE IF EXISTS game", "DROP TABLE IF EXISTS auth", "DROP TABLE IF EXISTS game_move", "DROP TABLE IF EXISTS game_archive"};
         for(var statement : statements) {
             executeUpdate(statement);
         }
     }
 
+    /**
+     * Copies each finished game into game_archive and deletes its live row and move log
+     * in the same transaction. A game that changed since it was read is left for the
+     * next run.
+     */
+    @Override
+    public int archiveFinishedGames(int limit) throws DataAccessException {
+        var gameIDs = new ArrayList<Integer>();
+        try (Connection conn = DatabaseManager.getConnection()) {
+            try (PreparedStatement ps = conn.prepareStatement("SELECT gameID FROM game WHERE finished = true ORDER BY gameID LIMIT ?")) {
+                ps.setInt(1, limit);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        gameIDs.add(rs.getInt("gameID"));
+                    }
+                }
+            }
+        } catch (Exception e) {
+            throw new DataAccessException(String.format("Error: unable to update database: %s", e.getMessage()));
+        }
+        var archived = 0;
+        for (var gameID : gameIDs) {
+            var revision = getGameRevision(gameID);
+            var gameData = getGame(gameID);
+            if (revision == null || gameData == null) {
+                continue;
+            }
+            try (Connection conn = DatabaseManager.getConnection()) {
+                conn.setAutoCommit(false);
+                try (PreparedStatement ps = conn.prepareStatement("DELETE FROM game WHERE gameID=? AND revision=?")) {
+                    ps.setInt(1, gameID);
+                    ps.setInt(2, revision);
+                    if (ps.executeUpdate() != 1) {
+                        conn.rollback();
+                        continue;
+                    }
+                }
+                var insert = "INSERT INTO game_archive (gameID, whiteUsername, blackUsername, gameName, moveCount, revision, gameState) VALUES (?, ?, ?, ?, ?, ?, ?)";
+                try (PreparedStatement ps = conn.prepareStatement(insert)) {
+                    ps.setInt(1, gameID);
+                    ps.setString(2, gameData.whiteUsername());
+                    ps.setString(3, gameData.blackUsername());
+                    ps.setString(4, gameData.gameName());
+                    ps.setInt(5, gameData.game().getMoveCount());
+                    ps.setInt(6, revision);
+                    ps.setBytes(7, GameArchive.compress(gameData.game()));
+                    ps.executeUpdate();
+                }
+                try (PreparedStatement ps = conn.prepareStatement("DELETE FROM game_move WHERE gameID=?")) {
+                    ps.setInt(1, gameID);
+                    ps.executeUpdate();
+                }
+                conn.commit();
+                archived++;
+            } catch (Exception e) {
+                throw new DataAccessException(String.format("Error: unable to archive game %d: %s", gameID, e.getMessage()));
+            }
+        }
+        return archived;
+    }
+
+    @Override
+    public ArrayList<GameSummary> listArchivedGames(String username, int afterGameID, int limit) throws DataAccessException {
+        var res = new ArrayList<GameSummary>();
+        var statement = "SELECT gameID, gameName, whiteUsername, blackUsername, moveCount FROM game_archive WHERE gameID > ?";
+        if (username != null) {
+            statement += " AND (whiteUsername = ? OR blackUsername = ?)";
+        }
+        statement += " ORDER BY gameID LIMIT ?";
+        try (Connection conn = DatabaseManager.getConnection()) {
+            try (PreparedStatement ps = conn.prepareStatement(statement)) {
+                var index = 1;
+                ps.setInt(index++, afterGameID);
+                if (username != null) {
+                    ps.setString(index++, username);
+                    ps.setString(index++, username);
+                }
+                ps.setInt(index, limit);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        res.add(new GameSummary(rs.getInt("gameID"), rs.getString("gameName"), rs.getString("whiteUsername"),
+                                rs.getString("blackUsername"), GameSummary.Status.FINISHED, rs.getInt("moveCount")));
+                    }
+                }
+            }
+        } catch (Exception e) {
+            throw new DataAccessException(String.format("Error: unable to update database: %s", e.getMessage()));
+        }
+        return res;
+    }
+
     public void removeFromGame(int gameID, ChessGame.TeamColor color) throws DataAccessException {
         var statement = "";
-        var gameData = getGame(gameID);
         if(color == ChessGame.TeamColor.BLACK) {
-            statement = "UPDATE game SET blackUsername=?, gameJson=? WHERE gameID=?";
+            statement = "UPDATE game SET blackUsername=?, revision=revision+1 WHERE gameID=?";
         } else if (color == ChessGame.TeamColor.WHITE) {
-            statement = "UPDATE game SET whiteUsername=?, gameJson=? WHERE gameID=?";
+            statement = "UPDATE game SET whiteUsername=?, revision=revision+1 WHERE gameID=?";
         }
-        var gameJson = new Gson().toJson(gameData.game());
-        executeUpdate(statement, null, gameJson, gameID);
+        executeUpdate(statement, null, gameID);
     }
 
+    /**
+     * Writes a full snapshot of the game. The snapshot covers every move made so far,
+     * so loading it replays nothing from the move log.
+     */
     @Override
     public void updateGame(GameData gameData) throws DataAccessException {
-        var statement = "UPDATE game SET gameJSON=? WHERE gameID=?";
-        var gameJson = new Gson().toJson(gameData.game());
-        executeUpdate(statement, gameJson, gameData.gameID());
+        var statement = "UPDATE game SET gameState=?, moveCount=?, finished=?, snapshotPly=?, revision=revision+1 WHERE gameID=?";
+        var game = gameData.game();
+        executeUpdate(statement, GameCodec.encode(game), game.getMoveCount(), game.gameOver(), game.getMoveCount(), gameData.gameID());
+    }
+
+    @Override
+    public boolean updateGame(GameData gameData, int expectedVersion) throws DataAccessException {
+        var statement = "UPDATE game SET gameState=?, moveCount=?, finished=?, snapshotPly=?, revision=revision+1 WHERE gameID=? AND revision=?";
+        var game = gameData.game();
+        return executeUpdateCount(statement, GameCodec.encode(game), game.getMoveCount(), game.gameOver(), game.getMoveCount(), gameData.gameID(), expectedVersion) == 1;
+    }
+
+    /**
+     * Appends a move to the log, which costs the same however long the game is. The
+     * game row itself is only rewritten every SNAPSHOT_INTERVAL moves. Moves are handed
+     * to a shared writer that commits them in batches; this waits for the batch holding
+     * this move to commit.
+     */
+    @Override
+    public boolean recordMove(GameData gameData, ChessMove move, int expectedVersion) throws DataAccessException {
+        var game = gameData.game();
+        var ply = game.getMoveCount();
+        var snapshot = ply % SNAPSHOT_INTERVAL == 0 ? GameCodec.encode(game) : null;
+        var result = moveWriter().submit(gameData.gameID(), ply, MoveEncoding.encode(move), game.gameOver(), snapshot, expectedVersion);
+        try {
+            return result.get(MOVE_WRITE_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new DataAccessException("Error: timed out saving move", e);
+        } catch (ExecutionException e) {
+            throw new DataAccessException(String.format("Error: unable to update database: %s", e.getCause().getMessage()), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DataAccessException("Error: interrupted while saving move", e);
+        }
+    }
+
+    private static synchronized GameWriteBatcher moveWriter() {
+        if (moveWriter == null) {
+            moveWriter = new GameWriteBatcher(DatabaseManager.batchMaxSize(), Duration.ofMillis(DatabaseManager.batchWindowMillis()));
+        }
+        return moveWriter;
     }
 
 }
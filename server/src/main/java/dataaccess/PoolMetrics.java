@@ -0,0 +1,9 @@
+package dataaccess;
+
+/**
+ * A snapshot of the connection pool. Wait times are how long callers of
+ * {@link DatabaseManager#getConnection()} spent blocked waiting for a free connection.
+ */
+public record PoolMetrics(int active, int idle, int maxSize, long acquisitions, long timeouts,
+                          long created, long totalWaitNanos, long maxWaitNanos) {
+}
@@ -0,0 +1,250 @@
+package dataaccess;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log split into numbered segment files. Each record is framed as
+ * length, CRC32 and payload, so a write torn by a crash is detected and dropped on
+ * recovery.
+ * <p>
+ * Appending only copies the record into a buffer. Callers then wait in sync() for it
+ * to reach the disk, and whichever caller gets there first writes and forces every
+ * record buffered so far, so concurrent writers share one fsync.
+ * <p>
+ * If a write or fsync fails, the records in that batch may be lost or half written,
+ * so the log stops there: every later append and sync throws rather than report as
+ * durable a record that might not be.
+ */
+class WriteAheadLog implements AutoCloseable {
+    private static final Pattern SEGMENT_NAME = Pattern.compile("wal-(\\d+)\\.log");
+    private static final int HEADER_BYTES = 8;
+
+    interface Opener {
+        FileChannel open(Path file) throws IOException;
+    }
+
+    private final Path directory;
+    private final Opener opener;
+    private final Object syncLock = new Object();
+    private FileChannel channel;
+    private long segment;
+    private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+    private long appended;
+    private volatile long durable;
+    private long recordsInSegment;
+    private volatile IOException failure;
+
+    WriteAheadLog(Path directory, long segment) throws IOException {
+        this(directory, segment, file -> FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+    }
+
+    /**
+     * @param opener opens a segment file for appending
+     */
+    WriteAheadLog(Path directory, long segment, Opener opener) throws IOException {
+        this.directory = directory;
+        this.opener = opener;
+        this.segment = segment;
+        channel = open(segment);
+    }
+
+    /**
+     * Reads every record in the segments from firstSegment on, oldest first. A torn or
+     * corrupt record ends its segment, and the damaged tail is cut off so new records
+     * are not appended after it.
+     * @return the number of the last segment found, or firstSegment if there were none
+     */
+    static long replay(Path directory, long firstSegment, Consumer<ByteBuffer> handler) throws IOException {
+        var last = firstSegment;
+        for (var segment : segments(directory)) {
+            if (segment < firstSegment) {
+                continue;
+            }
+            last = segment;
+            var file = segmentPath(directory, segment);
+            try (var channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                var good = 0;
+                while (buffer.remaining() >= HEADER_BYTES) {
+                    var length = buffer.getInt();
+                    var checksum = buffer.getInt();
+                    if (length < 0 || length > buffer.remaining()) {
+                        break;
+                    }
+                    var payload = buffer.slice(buffer.position(), length);
+                    if (crc(payload.duplicate()) != checksum) {
+                        break;
+                    }
+                    buffer.position(buffer.position() + length);
+                    handler.accept(payload);
+                    good = buffer.position();
+                }
+                if (good < channel.size()) {
+                    System.out.printf("Dropping %d damaged bytes at the end of %s%n", channel.size() - good, file.getFileName());
+                    channel.truncate(good);
+                }
+            }
+        }
+        return last;
+    }
+
+    static ArrayList<Long> segments(Path directory) throws IOException {
+        var res = new ArrayList<Long>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                var matcher = SEGMENT_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    res.add(Long.parseLong(matcher.group(1)));
+                }
+            });
+        }
+        res.sort(null);
+        return res;
+    }
+
+    /**
+     * @return a sequence number to hand to sync()
+     */
+    synchronized long append(byte[] record) throws IOException {
+        checkHealthy();
+        if (pending.remaining() < HEADER_BYTES + record.length) {
+            var grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + HEADER_BYTES + record.length));
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+        pending.putInt(record.length);
+        pending.putInt(crc(ByteBuffer.wrap(record)));
+        pending.put(record);
+        recordsInSegment++;
+        return ++appended;
+    }
+
+    /**
+     * Returns once the record with this sequence number is on disk.
+     */
+    void sync(long sequence) throws IOException {
+        if (durable >= sequence) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (durable >= sequence) {
+                // another caller's fsync already covered this record
+                return;
+            }
+            checkHealthy();
+            flush();
+        }
+    }
+
+    /**
+     * Throws if a write has failed, after which nothing more can be logged.
+     */
+    void checkHealthy() throws IOException {
+        if (failure != null) {
+            throw new IOException("log stopped after a failed write: " + failure.getMessage(), failure);
+        }
+    }
+
+    synchronized long recordsInSegment() {
+        return recordsInSegment;
+    }
+
+    /**
+     * Makes everything appended so far durable and starts a new segment. Callers must
+     * stop appends while this runs so the cut lines up with their snapshot.
+     * @return the number of the new segment
+     */
+    long rotate() throws IOException {
+        synchronized (syncLock) {
+            checkHealthy();
+            flush();
+            channel.close();
+            synchronized (this) {
+                segment++;
+                recordsInSegment = 0;
+                channel = open(segment);
+                return segment;
+            }
+        }
+    }
+
+    /**
+     * Deletes the segments older than keepFrom, once a snapshot covers them.
+     */
+    void deleteBefore(long keepFrom) throws IOException {
+        for (var old : segments(directory)) {
+            if (old < keepFrom) {
+                Files.deleteIfExists(segmentPath(directory, old));
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (syncLock) {
+            try {
+                if (failure == null) {
+                    flush();
+                }
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        ByteBuffer batch;
+        long upTo;
+        synchronized (this) {
+            batch = pending;
+            upTo = appended;
+            pending = ByteBuffer.allocate(batch.capacity());
+        }
+        batch.flip();
+        long start = -1;
+        try {
+            start = channel.size();
+            while (batch.hasRemaining()) {
+                channel.write(batch);
+            }
+            channel.force(false);
+        } catch (IOException ex) {
+            failure = ex;
+            if (start >= 0) {
+                try {
+                    // best effort, so a restart does not find half a batch at the end of the segment
+                    channel.truncate(start);
+                } catch (IOException ignored) {
+                    // replay drops the torn tail instead
+                }
+            }
+            throw ex;
+        }
+        durable = upTo;
+    }
+
+    private FileChannel open(long segment) throws IOException {
+        return opener.open(segmentPath(directory, segment));
+    }
+
+    private static Path segmentPath(Path directory, long segment) {
+        return directory.resolve(String.format("wal-%010d.log", segment));
+    }
+
+    private static int crc(ByteBuffer bytes) {
+        var crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+}
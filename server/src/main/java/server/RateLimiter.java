@@ -0,0 +1,105 @@
+package server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Token buckets keyed by whatever is being limited: a session, a username or an IP
+ * address. Each key may spend burst permits at once and earns them back at
+ * permitsPerSecond.
+ * <p>
+ * Buckets live in LRU maps capped at maxKeys in total, so a client spraying new keys
+ * can only push out the least recently seen ones. A bucket idle long enough to have
+ * refilled is dropped too, since a fresh bucket behaves the same. The keys are split
+ * across shards so unrelated requests rarely wait on the same lock.
+ */
+public class RateLimiter {
+    private static final int SHARDS = 16;
+
+    private final double permitsPerNano;
+    private final double burst;
+    private final long refillNanos;
+    private final Shard[] shards = new Shard[SHARDS];
+
+    private static class Bucket {
+        private double permits;
+        private long updatedAt;
+
+        private Bucket(double permits, long updatedAt) {
+            this.permits = permits;
+            this.updatedAt = updatedAt;
+        }
+    }
+
+    private class Shard extends LinkedHashMap<Object, Bucket> {
+        private final int maxKeys;
+
+        private Shard(int maxKeys) {
+            super(16, 0.75f, true);
+            this.maxKeys = maxKeys;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, Bucket> eldest) {
+            return size() > maxKeys || System.nanoTime() - eldest.getValue().updatedAt > refillNanos;
+        }
+    }
+
+    /**
+     * @param burst 0 for a limiter that lets everything through
+     */
+    public RateLimiter(double permitsPerSecond, int burst, int maxKeys) {
+        permitsPerNano = permitsPerSecond / 1e9;
+        this.burst = burst;
+        refillNanos = burst == 0 ? 0 : (long) (burst / permitsPerNano);
+        for(int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard(Math.max(1, maxKeys / SHARDS));
+        }
+    }
+
+    /**
+     * @return false if key has spent its permits and should be turned away
+     */
+    public boolean tryAcquire(Object key) {
+        if(burst == 0) {
+            return true;
+        }
+        var shard = shards[Math.floorMod(key.hashCode(), SHARDS)];
+        var now = System.nanoTime();
+        synchronized(shard) {
+            var bucket = shard.get(key);
+            if(bucket == null) {
+                shard.put(key, new Bucket(burst - 1, now));
+                return true;
+            }
+            bucket.permits = Math.min(burst, bucket.permits + (now - bucket.updatedAt) * permitsPerNano);
+            bucket.updatedAt = now;
+            if(bucket.permits < 1) {
+                return false;
+            }
+            bucket.permits--;
+            return true;
+        }
+    }
+
+    public void forget(Object key) {
+        var shard = shards[Math.floorMod(key.hashCode(), SHARDS)];
+        synchronized(shard) {
+            shard.remove(key);
+        }
+    }
+
+    /**
+     * Reads a limit such as "20/40", 20 permits a second with bursts of 40, from a
+     * system property. A rate of 0 turns the limit off.
+     */
+    public static RateLimiter fromProperty(String property, String defaultLimit, int maxKeys) {
+        var parts = System.getProperty(property, defaultLimit).split("/");
+        var permitsPerSecond = Double.parseDouble(parts[0]);
+        if(permitsPerSecond <= 0) {
+            return new RateLimiter(0, 0, 0);
+        }
+        var burst = parts.length > 1 ? Integer.parseInt(parts[1]) : (int) Math.ceil(permitsPerSecond);
+        return new RateLimiter(permitsPerSecond, Math.max(1, burst), maxKeys);
+    }
+}
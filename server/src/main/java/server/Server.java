@@ -1,45 +1,119 @@
 package server;
 
 import com.google.gson.Gson;
+import dataaccess.BackgroundSweeper;
 import dataaccess.DataAccess;
 import dataaccess.DataAccessException;
+import dataaccess.DatabaseManager;
+import dataaccess.FileDataAccess;
+import dataaccess.LatencyInjectingDataAccess;
 import dataaccess.MemoryDataAccess;
 import dataaccess.MySqlDataAccess;
 import model.*;
 import io.javalin.*;
 import io.javalin.http.Context;
+import io.javalin.http.Handler;
 import org.jetbrains.annotations.NotNull;
+import server.cluster.ClusterNode;
+import server.cluster.GameEventBus;
+import server.cluster.LocalEventBus;
+import server.cluster.TcpEventBus;
+import server.metrics.InstrumentedDataAccess;
+import server.metrics.Metrics;
+import server.metrics.TraceBuffer;
 import server.websocket.WebSocketHandler;
+import service.PasswordHasher;
 import service.Service;
 import service.ServiceException;
+import service.SignedTokens;
 
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ScheduledFuture;
 
 public class Server {
+    private static final Duration ARCHIVE_PERIOD = Duration.ofMinutes(1);
+    private static final int TRACE_CAPACITY = 256;
+    private static final int TRACE_SAMPLE_EVERY = 1000;
+    // per limiter; -Dchess.wsSessionRateLimit and -Dchess.wsUserRateLimit take the same rate/burst form as HTTP
+    private static final int RATE_LIMIT_KEYS = 100_000;
 
     private final Javalin httpHandler;
+    private final DataAccess dataAccess;
     private final Service service;
+    private final SignedTokens signedTokens;
     private final WebSocketHandler webSocketHandler;
+    private final ScheduledFuture<?> archiver;
+    private final GameEventBus eventBus;
+    private final Metrics metrics = new Metrics();
+    private final Metrics.LatencyFamily httpLatency = metrics.latency("chess_http_request_duration_seconds",
+            "Time spent handling each HTTP route.", "route");
+    private final TraceBuffer traces = new TraceBuffer(TRACE_CAPACITY,
+            Duration.ofMillis(Long.getLong("chess.traceSlowMillis", 50)), TRACE_SAMPLE_EVERY);
+    private final Metrics.CounterFamily httpErrors = metrics.counter("chess_http_errors_total",
+            "HTTP requests answered with an error status.", "route");
+    private final Metrics.CounterFamily rateLimited = metrics.counter("chess_rate_limited_total",
+            "Requests and commands turned away for going over a rate limit.", "limit");
+    private final RateLimiter ipLimiter = RateLimiter.fromProperty("chess.httpRateLimit", "100/200", RATE_LIMIT_KEYS);
+    private final Set<String> trustedProxies = Set.copyOf(List.of(System.getProperty("chess.trustedProxies", "").trim().split("\\s*,\\s*")));
 
     public Server() {
-        DataAccess dataAccess;
-        try {
-            dataAccess = new MySqlDataAccess();
-        }
-        catch(DataAccessException e) {
-            dataAccess = new MemoryDataAccess();
+        this(defaultDataAccess());
+    }
+
+    /**
+     * Serves from the given store, such as a MemoryDataAccess for an in-process load test.
+     */
+    public Server(DataAccess dataAccess) {
+        this(dataAccess, defaultEventBus());
+    }
+
+    /**
+     * @param eventBus shared with the other server nodes; closed when this server stops
+     */
+    public Server(DataAccess dataAccess, GameEventBus eventBus) {
+        this.dataAccess = dataAccess;
+        this.eventBus = eventBus;
+        if(dataAccess instanceof MySqlDataAccess) {
+            registerPoolMetrics();
         }
-        service = new Service(dataAccess);
-        webSocketHandler = new WebSocketHandler(dataAccess);
+        var instrumented = new InstrumentedDataAccess(injectLatency(dataAccess), metrics);
+        signedTokens = signedTokens();
+        service = new Service(instrumented, signedTokens, passwordHasher());
+        webSocketHandler = new WebSocketHandler(instrumented, service, metrics, traces,
+                RateLimiter.fromProperty("chess.wsSessionRateLimit", "20/40", RATE_LIMIT_KEYS),
+                RateLimiter.fromProperty("chess.wsUserRateLimit", "50/100", RATE_LIMIT_KEYS),
+                new ClusterNode(UUID.randomUUID().toString(), eventBus));
+        service.addRevocationListener(webSocketHandler::revokeToken);
+        archiver = BackgroundSweeper.schedule(this::archiveFinishedGames, ARCHIVE_PERIOD);
         httpHandler = Javalin.create(config -> config.staticFiles.add("web"))
         // Register your endpoints and exception handlers here.
-                .post("/user", this::register)
-                .post("/session", this::login)
-                .delete("/session", this::logout)
-                .get("/game", this::listGames)
-                .post("/game", this::createGame)
-                .put("/game", this::joinGame)
-                .delete("/db", this::clear)
+                .before(this::limitByIp)
+                .post("/user", timed("register", this::register))
+                .post("/session", timed("login", this::login))
+                .delete("/session", timed("logout", this::logout))
+                .get("/game", timed("listGames", this::listGames))
+                .get("/game/{id}", timed("getGame", this::getGame))
+                .get("/lobby", timed("listGameSummaries", this::listGameSummaries))
+                .get("/archive", timed("listArchivedGames", this::listArchivedGames))
+                .post("/game", timed("createGame", this::createGame))
+                .post("/games", timed("createGames", this::createGames))
+                .put("/game", timed("joinGame", this::joinGame))
+                .delete("/db", timed("clear", this::clear))
+                .get("/metrics", this::metrics)
+                .get("/admin/traces", this::traces)
                 .exception(ServiceException.class, this::exceptionHandler)
                 .exception(DataAccessException.class, this::exceptionHandler)
                 .ws("/ws", ws -> {
@@ -49,6 +123,192 @@ public class Server {
                 });
     }
 
+    private static DataAccess defaultDataAccess() {
+        try {
+            return new MySqlDataAccess();
+        }
+        catch(DataAccessException e) {
+            return fallbackDataAccess();
+        }
+    }
+
+    /**
+     * Without MySQL, state is kept on local disk if -Dchess.dataDir names a directory to
+     * keep it in, and only in memory otherwise. Either way, games idle for
+     * -Dchess.hibernateAfterMinutes (60 by default) are hibernated.
+     */
+    private static DataAccess fallbackDataAccess() {
+        var hibernateAfter = Duration.ofMinutes(Long.getLong("chess.hibernateAfterMinutes",
+                MemoryDataAccess.DEFAULT_HIBERNATE_AFTER.toMinutes()));
+        var dataDir = System.getProperty("chess.dataDir");
+        if(dataDir == null) {
+            return new MemoryDataAccess(DataAccess.DEFAULT_AUTH_TTL, hibernateAfter);
+        }
+        try {
+            return new FileDataAccess(Path.of(dataDir), DataAccess.DEFAULT_AUTH_TTL, hibernateAfter);
+        }
+        catch(DataAccessException e) {
+            System.out.println(e.getMessage());
+            return new MemoryDataAccess(DataAccess.DEFAULT_AUTH_TTL, hibernateAfter);
+        }
+    }
+
+    /**
+     * A node of a cluster on one machine is started with -Dchess.busPort, the port it
+     * listens on for events, and -Dchess.busPeers, the other nodes' ports as a comma
+     * separated list. Without them the server runs alone.
+     */
+    private static GameEventBus defaultEventBus() {
+        var port = Integer.getInteger("chess.busPort");
+        if(port == null) {
+            return new LocalEventBus();
+        }
+        var peers = new ArrayList<InetSocketAddress>();
+        for(var peer : System.getProperty("chess.busPeers", "").split(",")) {
+            if(!peer.isBlank()) {
+                peers.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(peer.trim())));
+            }
+        }
+        try {
+            return new TcpEventBus(port, peers);
+        } catch(IOException e) {
+            // running alone would split every game whose players landed on different nodes
+            throw new IllegalStateException("Error: unable to listen for events on port " + port, e);
+        }
+    }
+
+    /**
+     * -Dchess.injectLatency slows down and fails store calls on purpose, e.g.
+     * "*=1ms/10ms,getGame=5ms/50ms/0.01"; see LatencyInjectingDataAccess for the format.
+     */
+    private static DataAccess injectLatency(DataAccess dataAccess) {
+        var spec = System.getProperty("chess.injectLatency");
+        if(spec == null || spec.isBlank()) {
+            return dataAccess;
+        }
+        return new LatencyInjectingDataAccess(dataAccess, LatencyInjectingDataAccess.parse(spec));
+    }
+
+    /**
+     * Each client address gets -Dchess.httpRateLimit requests a second, written as
+     * rate/burst and 100/200 by default; past that it is answered 429 without the
+     * route running. 0 turns the limit off.
+     */
+    private void limitByIp(@NotNull Context ctx) throws ServiceException {
+        if(!ipLimiter.tryAcquire(clientAddress(ctx.ip(), ctx.header("X-Forwarded-For"), trustedProxies))) {
+            rateLimited.counter("http_ip").increment();
+            ctx.header("Retry-After", "1");
+            throw new ServiceException("Error: too many requests", ServiceException.Code.TooManyRequestsError);
+        }
+    }
+
+    /**
+     * Behind a load balancer every request comes from the balancer's address. Requests
+     * from an address in -Dchess.trustedProxies (comma separated) are charged to the
+     * nearest X-Forwarded-For hop that is not itself a trusted proxy; anything further
+     * left in the header could have been written by the client.
+     */
+    static String clientAddress(String remote, String forwardedFor, Set<String> trustedProxies) {
+        if(forwardedFor == null || !trustedProxies.contains(remote)) {
+            return remote;
+        }
+        var client = remote;
+        var hops = forwardedFor.split(",");
+        for(int i = hops.length - 1; i >= 0; i--) {
+            var hop = hops[i].trim();
+            if(hop.isEmpty()) {
+                continue;
+            }
+            client = hop;
+            if(!trustedProxies.contains(hop)) {
+                break;
+            }
+        }
+        return client;
+    }
+
+    private Handler timed(String route, Handler handler) {
+        var histogram = httpLatency.histogram(route);
+        var errors = httpErrors.counter(route);
+        return ctx -> {
+            var start = System.nanoTime();
+            try {
+                handler.handle(ctx);
+                if(ctx.statusCode() >= 400) {
+                    errors.increment();
+                }
+            } catch(Exception ex) {
+                errors.increment();
+                throw ex;
+            } finally {
+                histogram.record(System.nanoTime() - start);
+            }
+        };
+    }
+
+    private void registerPoolMetrics() {
+        metrics.sample("chess_db_pool_active_connections", "gauge", "Connections currently lent out.",
+                () -> DatabaseManager.poolMetrics().active());
+        metrics.sample("chess_db_pool_idle_connections", "gauge", "Connections waiting in the pool.",
+                () -> DatabaseManager.poolMetrics().idle());
+        metrics.sample("chess_db_pool_max_connections", "gauge", "The most connections the pool will open.",
+                () -> DatabaseManager.poolMetrics().maxSize());
+        metrics.sample("chess_db_pool_timeouts_total", "counter", "Callers that gave up waiting for a connection.",
+                () -> DatabaseManager.poolMetrics().timeouts());
+        metrics.sample("chess_db_pool_wait_seconds_total", "counter", "Time callers spent waiting for a connection.",
+                () -> DatabaseManager.poolMetrics().totalWaitNanos() / 1e9);
+    }
+
+    private void metrics(@NotNull Context ctx) {
+        ctx.contentType("text/plain; version=0.0.4; charset=utf-8");
+        ctx.result(metrics.scrape());
+    }
+
+    /**
+     * Recent slow WebSocket commands, for loading into chrome://tracing or Perfetto.
+     * Only answered when the authorization header matches -Dchess.adminToken.
+     */
+    private void traces(@NotNull Context ctx) throws ServiceException {
+        var adminToken = System.getProperty("chess.adminToken");
+        if(adminToken == null || !MessageDigest.isEqual(adminToken.getBytes(StandardCharsets.UTF_8),
+                Objects.requireNonNullElse(ctx.header("authorization"), "").getBytes(StandardCharsets.UTF_8))) {
+            throw new ServiceException("Error: unauthorized", ServiceException.Code.NotLoggedInError);
+        }
+        ctx.contentType("application/json");
+        ctx.result(traces.toJson());
+    }
+
+    /**
+     * Signed tokens are enabled with -Dchess.signedTokens=true. Set chess.tokenKey to a
+     * base64 key shared by every server that should accept the same tokens; without one
+     * a random key is used and tokens do not survive a restart.
+     */
+    private SignedTokens signedTokens() {
+        if(!Boolean.getBoolean("chess.signedTokens")) {
+            return null;
+        }
+        var configuredKey = System.getProperty("chess.tokenKey");
+        var key = configuredKey == null ? SignedTokens.randomKey() : Base64.getDecoder().decode(configuredKey);
+        return new SignedTokens(key, DataAccess.DEFAULT_AUTH_TTL);
+    }
+
+    /**
+     * BCrypt runs on -Dchess.bcryptThreads threads (half the cores by default) at cost
+     * -Dchess.bcryptCost, with at most -Dchess.bcryptQueue logins waiting for a thread.
+     */
+    private PasswordHasher passwordHasher() {
+        var hashLatency = metrics.latency("chess_password_hash_duration_seconds",
+                "Time spent hashing and checking passwords, and waiting for a hashing thread.", "operation");
+        var hasher = new PasswordHasher(Integer.getInteger("chess.bcryptCost", PasswordHasher.DEFAULT_COST),
+                Integer.getInteger("chess.bcryptThreads", PasswordHasher.DEFAULT_THREADS),
+                Integer.getInteger("chess.bcryptQueue", PasswordHasher.DEFAULT_QUEUE),
+                (operation, nanos) -> hashLatency.histogram(operation).record(nanos));
+        metrics.sample("chess_password_hash_queued", "gauge", "Password hashes waiting for a thread.", hasher::queued);
+        metrics.sample("chess_password_hash_rejected_total", "counter", "Password hashes turned away because the queue was full.",
+                hasher::rejected);
+        return hasher;
+    }
+
     private void joinGame(@NotNull Context ctx) throws Exception {
         try{
             var serializer = new Gson();
@@ -79,6 +339,17 @@ public class Server {
         ctx.result(serializer.toJson(res));
     }
 
+    private void createGames(@NotNull Context ctx) throws Exception {
+        var serializer = new Gson();
+        String jsonRequest = ctx.body();
+        var request = serializer.fromJson(jsonRequest, CreateGamesRequest.class);
+        String authToken = ctx.header("authorization");
+        request = new CreateGamesRequest(authToken, request == null ? null : request.gameNames());
+        //call to the service
+        var res = service.createGames(request);
+        ctx.result(serializer.toJson(res));
+    }
+
     private void listGames(@NotNull Context ctx) throws Exception {
         var serializer = new Gson();
         String authToken = ctx.header("authorization");
@@ -89,6 +360,89 @@ public class Server {
 
     }
 
+    private void listGameSummaries(@NotNull Context ctx) throws Exception {
+        var serializer = new Gson();
+        String authToken = ctx.header("authorization");
+        ListGameSummariesRequest request;
+        try {
+            var after = ctx.queryParam("after");
+            var limit = ctx.queryParam("limit");
+            var openSeats = ctx.queryParam("openSeats");
+            var status = ctx.queryParam("status");
+            request = new ListGameSummariesRequest(authToken,
+                    after == null ? 0 : Integer.parseInt(after),
+                    limit == null ? 0 : Integer.parseInt(limit),
+                    openSeats == null ? null : Boolean.parseBoolean(openSeats),
+                    status == null ? null : GameSummary.Status.valueOf(status.toUpperCase()));
+        } catch(IllegalArgumentException ex) {
+            throw new ServiceException("Error: Bad request, invalid lobby query", ServiceException.Code.BadRequestError);
+        }
+        //call to the service
+        var res = service.listGameSummaries(request);
+        ctx.result(serializer.toJson(res));
+    }
+
+    private void listArchivedGames(@NotNull Context ctx) throws Exception {
+        var serializer = new Gson();
+        String authToken = ctx.header("authorization");
+        ArchivedGamesRequest request;
+        try {
+            var after = ctx.queryParam("after");
+            var limit = ctx.queryParam("limit");
+            request = new ArchivedGamesRequest(authToken, ctx.queryParam("player"),
+                    after == null ? 0 : Integer.parseInt(after),
+                    limit == null ? 0 : Integer.parseInt(limit));
+        } catch(NumberFormatException ex) {
+            throw new ServiceException("Error: Bad request, invalid archive query", ServiceException.Code.BadRequestError);
+        }
+        //call to the service
+        var res = service.listArchivedGames(request);
+        ctx.result(serializer.toJson(res));
+    }
+
+    private void archiveFinishedGames() {
+        try {
+            service.archiveFinishedGames();
+        } catch(DataAccessException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    private void getGame(@NotNull Context ctx) throws Exception {
+        var serializer = new Gson();
+        int gameID;
+        try {
+            gameID = Integer.parseInt(ctx.pathParam("id"));
+        } catch(NumberFormatException ex) {
+            throw new ServiceException("Error: Bad request, invalid game ID", ServiceException.Code.BadRequestError);
+        }
+        String authToken = ctx.header("authorization");
+        var request = new GetGameRequest(authToken, gameID, parseETag(ctx.header("If-None-Match")));
+        //call to the service
+        var res = service.getGame(request);
+        ctx.header("ETag", "\"" + res.revision() + "\"");
+        if(res.game() == null) {
+            ctx.status(304);
+            return;
+        }
+        ctx.result(serializer.toJson(res.game()));
+    }
+
+    private Integer parseETag(String etag) {
+        if(etag == null) {
+            return null;
+        }
+        etag = etag.trim();
+        if(etag.startsWith("W/")) {
+            etag = etag.substring(2);
+        }
+        try {
+            return Integer.parseInt(etag.replace("\"", ""));
+        } catch(NumberFormatException ex) {
+            return null;
+        }
+    }
+
     private void logout(@NotNull Context ctx) throws Exception {
         String authToken = ctx.header("authorization");
         var request = new AuthorizationRequest(authToken);
@@ -121,6 +475,7 @@ public class Server {
     public void clear() throws Exception {
         if(service != null) {
             service.clear();
+            webSocketHandler.revokeAllTokens();
         }
     }
 
@@ -130,6 +485,21 @@ public class Server {
     }
     public void stop() {
         httpHandler.stop();
+        archiver.cancel(false);
+        webSocketHandler.close();
+        try {
+            eventBus.close();
+        } catch(IOException e) {
+            System.out.println(e.getMessage());
+        }
+        if(signedTokens != null) {
+            signedTokens.close();
+        }
+        try {
+            dataAccess.close();
+        } catch(DataAccessException e) {
+            System.out.println(e.getMessage());
+        }
     }
     private void exceptionHandler(ServiceException e, Context ctx) {
         ctx.status(e.toHttpStatusCode());
@@ -0,0 +1,108 @@
+package server.cluster;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * This server's place in the cluster. Every node sends a heartbeat on the bus each
+ * second; a node not heard from for three seconds is taken to have left. Each node
+ * builds the same hash ring from the nodes it can hear, so they agree on which one
+ * owns each game, and a game only moves when a node next to it on the ring joins or
+ * leaves.
+ * <p>
+ * Heartbeats have a thread of their own. On the shared BackgroundSweeper they would
+ * wait behind snapshots and archiving, and a long sweep would get this node dropped.
+ */
+public class ClusterNode {
+    private static final Duration HEARTBEAT_PERIOD = Duration.ofSeconds(1);
+    private static final long DEAD_AFTER_NANOS = Duration.ofSeconds(3).toNanos();
+
+    private final String name;
+    private final GameEventBus bus;
+    private final ConcurrentHashMap<String, Long> lastHeard = new ConcurrentHashMap<>();
+    private final Runnable unsubscribe;
+    private final ScheduledExecutorService heartbeat;
+    private volatile HashRing ring;
+
+    public ClusterNode(String name, GameEventBus bus) {
+        this.name = name;
+        this.bus = bus;
+        ring = new HashRing(List.of(name), HashRing.DEFAULT_VIRTUAL_NODES);
+        unsubscribe = bus.subscribe(name, this::onHeartbeat);
+        heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "cluster-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeat.scheduleAtFixedRate(() -> {
+            try {
+                beat();
+            } catch(RuntimeException ex) {
+                System.out.println("Heartbeat failed: " + ex.getMessage());
+            }
+        }, 0, HEARTBEAT_PERIOD.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public String owner(int gameID) {
+        return ring.owner(gameID);
+    }
+
+    public boolean owns(int gameID) {
+        return name.equals(ring.owner(gameID));
+    }
+
+    public void publish(GameEvent event) {
+        bus.publish(event);
+    }
+
+    /**
+     * @param subscriber handed every event from another node; events for a different
+     *                   target node are left out
+     * @return stops the subscription when run
+     */
+    public Runnable subscribe(Consumer<GameEvent> subscriber) {
+        return bus.subscribe(name, event -> {
+            if(event.type() != GameEvent.Type.HEARTBEAT && (event.target() == null || event.target().equals(name))) {
+                subscriber.accept(event);
+            }
+        });
+    }
+
+    public void close() {
+        heartbeat.shutdownNow();
+        unsubscribe.run();
+    }
+
+    private void onHeartbeat(GameEvent event) {
+        if(event.type() == GameEvent.Type.HEARTBEAT && lastHeard.put(event.origin(), System.nanoTime()) == null) {
+            rebuildRing();
+        }
+    }
+
+    private void beat() {
+        bus.publish(new GameEvent(GameEvent.Type.HEARTBEAT, name, null, 0, null, null));
+        var now = System.nanoTime();
+        if(lastHeard.values().removeIf(heardAt -> now - heardAt > DEAD_AFTER_NANOS)) {
+            rebuildRing();
+        }
+    }
+
+    private synchronized void rebuildRing() {
+        var nodes = new HashSet<>(lastHeard.keySet());
+        nodes.add(name);
+        if(!nodes.equals(ring.nodes())) {
+            ring = new HashRing(nodes, HashRing.DEFAULT_VIRTUAL_NODES);
+            System.out.println("Cluster now has nodes " + nodes);
+        }
+    }
+}
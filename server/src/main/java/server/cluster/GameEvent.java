@@ -0,0 +1,25 @@
+package server.cluster;
+
+/**
+ * Something one node tells the others. Events are never delivered back to the node in
+ * origin, which has already acted on them locally.
+ * @param target the only node that should act on the event, or null for all of them
+ * @param session a socket, named as in ConnectionManager: the one a BROADCAST skips,
+ *                the one a COMMAND came from, or the one a REPLY, WATCH or UNWATCH is for
+ * @param payload the message for BROADCAST and REPLY, the command's JSON for COMMAND,
+ *                the logged out token for REVOKE_TOKEN, and for REVOKE_ALL the issue time
+ *                signed tokens must be later than, or null without signed tokens
+ */
+public record GameEvent(Type type, String origin, String target, int gameID, String session, String payload) {
+    public enum Type {
+        BROADCAST,
+        REVOKE_TOKEN,
+        REVOKE_ALL,
+        COMMAND,
+        REPLY,
+        WATCH,
+        UNWATCH,
+        CLOSED,
+        HEARTBEAT,
+    }
+}
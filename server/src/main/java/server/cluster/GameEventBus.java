@@ -0,0 +1,18 @@
+package server.cluster;
+
+import java.io.Closeable;
+import java.util.function.Consumer;
+
+/**
+ * Carries game events between the server nodes behind a load balancer, so the two
+ * players of a game can be connected to different processes.
+ */
+public interface GameEventBus extends Closeable {
+    void publish(GameEvent event);
+
+    /**
+     * @param origin this subscriber's node; events it published are not handed back to it
+     * @return stops the subscription when run
+     */
+    Runnable subscribe(String origin, Consumer<GameEvent> subscriber);
+}
@@ -0,0 +1,64 @@
+package server.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Maps each game to one node by consistent hashing. Every node is placed on the ring
+ * at many points, its virtual nodes, so games spread evenly, and a node joining or
+ * leaving only moves the games next to its own points: about 1/n of them.
+ */
+public class HashRing {
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+    private final Set<String> nodes;
+
+    public HashRing(Collection<String> nodes, int virtualNodes) {
+        this.nodes = Set.copyOf(nodes);
+        for(var node : this.nodes) {
+            for(int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(node + "#" + i), node);
+            }
+        }
+    }
+
+    public Set<String> nodes() {
+        return nodes;
+    }
+
+    /**
+     * @return the node that owns the game, or null if the ring has no nodes
+     */
+    public String owner(int gameID) {
+        if(ring.isEmpty()) {
+            return null;
+        }
+        var entry = ring.ceilingEntry(mix(gameID));
+        return entry == null ? ring.firstEntry().getValue() : entry.getValue();
+    }
+
+    private static long hash(String point) {
+        try {
+            var digest = MessageDigest.getInstance("MD5").digest(point.getBytes(StandardCharsets.UTF_8));
+            long res = 0;
+            for(int i = 0; i < Long.BYTES; i++) {
+                res = (res << 8) | (digest[i] & 0xFF);
+            }
+            return res;
+        } catch(NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    // game IDs are sequential, so they are scrambled before being placed on the ring
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+}
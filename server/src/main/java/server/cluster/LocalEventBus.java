@@ -0,0 +1,37 @@
+package server.cluster;
+
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Delivers events to the other nodes in the same JVM, on the publishing thread. With a
+ * single server it has no one to deliver to, which is the usual deployment.
+ */
+public class LocalEventBus implements GameEventBus {
+    private record Subscription(String origin, Consumer<GameEvent> subscriber) {
+    }
+
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void publish(GameEvent event) {
+        for(var subscription : subscriptions) {
+            if(!Objects.equals(subscription.origin(), event.origin())) {
+                subscription.subscriber().accept(event);
+            }
+        }
+    }
+
+    @Override
+    public Runnable subscribe(String origin, Consumer<GameEvent> subscriber) {
+        var subscription = new Subscription(origin, subscriber);
+        subscriptions.add(subscription);
+        return () -> subscriptions.remove(subscription);
+    }
+
+    @Override
+    public void close() {
+        subscriptions.clear();
+    }
+}
@@ -0,0 +1,215 @@
+package server.cluster;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Sends events to every peer node over TCP, one JSON event per line, for running
+ * several server processes on one machine. Each node listens on the loopback address
+ * and keeps one outgoing connection per peer, so events from one node reach each
+ * other node in the order they were published.
+ * <p>
+ * A peer that is down is reconnected to every second. Events for it wait in a bounded
+ * queue meanwhile, and once that fills further events for it are dropped and counted.
+ * There is no authentication, which is why only loopback is listened on.
+ */
+public class TcpEventBus implements GameEventBus {
+    private static final int QUEUE_CAPACITY = 10_000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+    private static final long RECONNECT_MILLIS = 1000;
+
+    private final Gson gson = new Gson();
+    private final ServerSocket server;
+    private final ArrayList<Peer> peers = new ArrayList<>();
+    private final CopyOnWriteArrayList<Socket> inbound = new CopyOnWriteArrayList<>();
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final LongAdder dropped = new LongAdder();
+    private volatile boolean closed;
+
+    private record Subscription(String origin, Consumer<GameEvent> subscriber) {
+    }
+
+    /**
+     * @param port the port to listen on, or 0 for any free one
+     */
+    public TcpEventBus(int port, List<InetSocketAddress> peerAddresses) throws IOException {
+        server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        daemon("event-bus-accept", this::accept).start();
+        for(var address : peerAddresses) {
+            var peer = new Peer(address);
+            peers.add(peer);
+            peer.thread.start();
+        }
+    }
+
+    public int port() {
+        return server.getLocalPort();
+    }
+
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public void publish(GameEvent event) {
+        var line = gson.toJson(event);
+        for(var peer : peers) {
+            if(!peer.queue.offer(line)) {
+                dropped.increment();
+            }
+        }
+    }
+
+    @Override
+    public Runnable subscribe(String origin, Consumer<GameEvent> subscriber) {
+        var subscription = new Subscription(origin, subscriber);
+        subscriptions.add(subscription);
+        return () -> subscriptions.remove(subscription);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+        for(var socket : inbound) {
+            socket.close();
+        }
+        for(var peer : peers) {
+            peer.thread.interrupt();
+            peer.disconnect();
+        }
+    }
+
+    private void accept() {
+        while(!closed) {
+            try {
+                var socket = server.accept();
+                inbound.add(socket);
+                daemon("event-bus-receive-" + socket.getPort(), () -> receive(socket)).start();
+            } catch(IOException ex) {
+                if(!closed) {
+                    System.out.println("Event bus accept failed: " + ex.getMessage());
+                }
+            }
+        }
+    }
+
+    private void receive(Socket socket) {
+        try(var reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while((line = reader.readLine()) != null) {
+                GameEvent event;
+                try {
+                    event = gson.fromJson(line, GameEvent.class);
+                } catch(JsonParseException ex) {
+                    // the tail of a line cut off when the sender's connection dropped
+                    continue;
+                }
+                deliver(event);
+            }
+        } catch(IOException ex) {
+            // the peer went away; it reconnects on its own
+        } finally {
+            inbound.remove(socket);
+        }
+    }
+
+    private void deliver(GameEvent event) {
+        for(var subscription : subscriptions) {
+            if(!Objects.equals(subscription.origin(), event.origin())) {
+                try {
+                    subscription.subscriber().accept(event);
+                } catch(RuntimeException ex) {
+                    System.out.println("Event bus subscriber failed: " + ex.getMessage());
+                }
+            }
+        }
+    }
+
+    private static Thread daemon(String name, Runnable task) {
+        var thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private class Peer {
+        private final InetSocketAddress address;
+        private final BlockingQueue<String> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final Thread thread;
+        private Socket socket;
+        private BufferedWriter writer;
+
+        private Peer(InetSocketAddress address) {
+            this.address = address;
+            thread = daemon("event-bus-send-" + address.getPort(), this::send);
+        }
+
+        private void send() {
+            String line = null;
+            while(!closed) {
+                try {
+                    if(line == null) {
+                        line = queue.take();
+                    }
+                    if(writer == null) {
+                        connect();
+                    }
+                    writer.write(line);
+                    writer.write('\n');
+                    line = null;
+                    // one flush for everything that queued up while the last write was in progress
+                    if(queue.isEmpty()) {
+                        writer.flush();
+                    }
+                } catch(InterruptedException ex) {
+                    return;
+                } catch(IOException ex) {
+                    disconnect();
+                    try {
+                        Thread.sleep(RECONNECT_MILLIS);
+                    } catch(InterruptedException interrupted) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void connect() throws IOException {
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+            writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        }
+
+        private void disconnect() {
+            writer = null;
+            if(socket != null) {
+                try {
+                    socket.close();
+                } catch(IOException ignored) {
+                    // already gone
+                }
+                socket = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package server.metrics;
+
+import chess.ChessGame;
+import chess.ChessMove;
+import dataaccess.DataAccess;
+import dataaccess.DataAccessException;
+import model.AuthData;
+import model.GameData;
+import model.GameSummary;
+import model.UserData;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Times every call into another DataAccess, one histogram per method.
+ */
+public class InstrumentedDataAccess implements DataAccess {
+    private final DataAccess delegate;
+    private final Metrics.LatencyFamily latency;
+    private final Metrics.CounterFamily errors;
+
+    private interface Call<T> {
+        T run() throws DataAccessException;
+    }
+
+    private interface VoidCall {
+        void run() throws DataAccessException;
+    }
+
+    public InstrumentedDataAccess(DataAccess delegate, Metrics metrics) {
+        this.delegate = delegate;
+        latency = metrics.latency("chess_dataaccess_duration_seconds", "Time spent in each data access call.", "method");
+        errors = metrics.counter("chess_dataaccess_errors_total", "Data access calls that threw.", "method");
+    }
+
+    private <T> T timed(String method, Call<T> call) throws DataAccessException {
+        var start = System.nanoTime();
+        try {
+            return call.run();
+        } catch (DataAccessException | RuntimeException ex) {
+            errors.counter(method).increment();
+            throw ex;
+        } finally {
+            latency.histogram(method).record(System.nanoTime() - start);
+        }
+    }
+
+    private void timed(String method, VoidCall call) throws DataAccessException {
+        timed(method, () -> {
+            call.run();
+            return null;
+        });
+    }
+
+    @Override
+    public void saveUser(UserData userData) throws DataAccessException {
+        timed("saveUser", () -> delegate.saveUser(userData));
+    }
+
+    @Override
+    public UserData getUser(String username) throws DataAccessException {
+        return timed("getUser", () -> delegate.getUser(username));
+    }
+
+    @Override
+    public void updatePassword(String username, String passwordHash) throws DataAccessException {
+        timed("updatePassword", () -> delegate.updatePassword(username, passwordHash));
+    }
+
+    @Override
+    public void clearData() throws DataAccessException {
+        timed("clearData", delegate::clearData);
+    }
+
+    @Override
+    public String findAuth(String authKey) throws DataAccessException {
+        return timed("findAuth", () -> delegate.findAuth(authKey));
+    }
+
+    @Override
+    public void deleteAuth(String authKey) throws DataAccessException {
+        timed("deleteAuth", () -> delegate.deleteAuth(authKey));
+    }
+
+    @Override
+    public void addAuth(AuthData authData) throws DataAccessException {
+        timed("addAuth", () -> delegate.addAuth(authData));
+    }
+
+    @Override
+    public ArrayList<GameData> listGames() throws DataAccessException {
+        return timed("listGames", delegate::listGames);
+    }
+
+    @Override
+    public ArrayList<GameSummary> listGameSummaries(int afterGameID, int limit, Boolean openSeats, GameSummary.Status status) throws DataAccessException {
+        return timed("listGameSummaries", () -> delegate.listGameSummaries(afterGameID, limit, openSeats, status));
+    }
+
+    @Override
+    public boolean gameExists(int gameID) throws DataAccessException {
+        return timed("gameExists", () -> delegate.gameExists(gameID));
+    }
+
+    @Override
+    public int createGame(String gameName) throws DataAccessException {
+        return timed("createGame", () -> delegate.createGame(gameName));
+    }
+
+    @Override
+    public ArrayList<Integer> createGames(List<String> gameNames) throws DataAccessException {
+        return timed("createGames", () -> delegate.createGames(gameNames));
+    }
+
+    @Override
+    public GameData getGame(int gameID) throws DataAccessException {
+        return timed("getGame", () -> delegate.getGame(gameID));
+    }
+
+    @Override
+    public Integer getGameRevision(int gameID) throws DataAccessException {
+        return timed("getGameRevision", () -> delegate.getGameRevision(gameID));
+    }
+
+    @Override
+    public boolean addPlayerToGame(String username, ChessGame.TeamColor playerColor, int gameID) throws DataAccessException {
+        return timed("addPlayerToGame", () -> delegate.addPlayerToGame(username, playerColor, gameID));
+    }
+
+    @Override
+    public void removeFromGame(int gameID, ChessGame.TeamColor teamColor) throws DataAccessException {
+        timed("removeFromGame", () -> delegate.removeFromGame(gameID, teamColor));
+    }
+
+    @Override
+    public void updateGame(GameData gameData) throws DataAccessException {
+        timed("updateGame", () -> delegate.updateGame(gameData));
+    }
+
+    @Override
+    public boolean updateGame(GameData gameData, int expectedVersion) throws DataAccessException {
+        return timed("updateGameIfVersion", () -> delegate.updateGame(gameData, expectedVersion));
+    }
+
+    @Override
+    public boolean recordMove(GameData gameData, ChessMove move, int expectedVersion) throws DataAccessException {
+        return timed("recordMove", () -> delegate.recordMove(gameData, move, expectedVersion));
+    }
+
+    @Override
+    public int archiveFinishedGames(int limit) throws DataAccessException {
+        return timed("archiveFinishedGames", () -> delegate.archiveFinishedGames(limit));
+    }
+
+    @Override
+    public ArrayList<GameSummary> listArchivedGames(String username, int afterGameID, int limit) throws DataAccessException {
+        return timed("listArchivedGames", () -> delegate.listArchivedGames(username, afterGameID, limit));
+    }
+
+    @Override
+    public void close() throws DataAccessException {
+        delegate.close();
+    }
+}
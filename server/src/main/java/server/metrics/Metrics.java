@@ -0,0 +1,131 @@
+package server.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * The server's metrics, rendered in the Prometheus text format for GET /metrics.
+ * Latencies are exposed as summaries with p50, p90, p99 and p999 read from each
+ * {@link LatencyHistogram}, plus the usual _sum and _count.
+ */
+public class Metrics {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    // sorted so the scrape output is stable from one scrape to the next
+    private final Map<String, LatencyFamily> latencies = new ConcurrentSkipListMap<>();
+    private final Map<String, CounterFamily> counters = new ConcurrentSkipListMap<>();
+    private final Map<String, Sampled> sampled = new ConcurrentSkipListMap<>();
+
+    /**
+     * One histogram per value of a single label, such as one per route.
+     */
+    public static class LatencyFamily {
+        private final String help;
+        private final String label;
+        private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+        private LatencyFamily(String help, String label) {
+            this.help = help;
+            this.label = label;
+        }
+
+        public LatencyHistogram histogram(String labelValue) {
+            return histograms.computeIfAbsent(labelValue, value -> new LatencyHistogram());
+        }
+    }
+
+    public static class CounterFamily {
+        private final String help;
+        private final String label;
+        private final Map<String, LongAdder> counts = new ConcurrentHashMap<>();
+
+        private CounterFamily(String help, String label) {
+            this.help = help;
+            this.label = label;
+        }
+
+        public LongAdder counter(String labelValue) {
+            return counts.computeIfAbsent(labelValue, value -> new LongAdder());
+        }
+    }
+
+    private record Sampled(String type, String help, DoubleSupplier value) {
+    }
+
+    /**
+     * @param name the metric name, in seconds as Prometheus expects, e.g. chess_http_request_duration_seconds
+     */
+    public LatencyFamily latency(String name, String help, String label) {
+        return latencies.computeIfAbsent(name, key -> new LatencyFamily(help, label));
+    }
+
+    public CounterFamily counter(String name, String help, String label) {
+        return counters.computeIfAbsent(name, key -> new CounterFamily(help, label));
+    }
+
+    /**
+     * Registers a value that is read at scrape time, such as a pool size.
+     * @param type "gauge" or "counter"
+     */
+    public void sample(String name, String type, String help, DoubleSupplier value) {
+        sampled.put(name, new Sampled(type, help, value));
+    }
+
+    public String scrape() {
+        var out = new StringBuilder();
+        latencies.forEach((name, family) -> {
+            header(out, name, "summary", family.help);
+            family.histograms.entrySet().stream().sorted(Map.Entry.comparingByKey()).forEach(entry -> {
+                var labels = family.label + "=\"" + escape(entry.getKey()) + "\"";
+                var histogram = entry.getValue();
+                var empty = histogram.count() == 0;
+                for (var quantile : QUANTILES) {
+                    var value = empty ? Double.NaN : seconds(histogram.valueAtQuantile(quantile));
+                    line(out, name, labels + ",quantile=\"" + quantile + "\"", value);
+                }
+                line(out, name + "_sum", labels, seconds(histogram.sumNanos()));
+                line(out, name + "_count", labels, histogram.count());
+            });
+        });
+        counters.forEach((name, family) -> {
+            header(out, name, "counter", family.help);
+            family.counts.entrySet().stream().sorted(Map.Entry.comparingByKey()).forEach(entry ->
+                    line(out, name, family.label + "=\"" + escape(entry.getKey()) + "\"", entry.getValue().sum()));
+        });
+        sampled.forEach((name, metric) -> {
+            header(out, name, metric.type(), metric.help());
+            line(out, name, null, metric.value().getAsDouble());
+        });
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void line(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (labels != null) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
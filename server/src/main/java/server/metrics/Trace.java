@@ -0,0 +1,59 @@
+package server.metrics;
+
+import java.util.ArrayList;
+
+/**
+ * The stages of one request, timed back to back: each call to mark() closes a span that
+ * began where the previous one ended. A trace belongs to the thread handling the
+ * request, so it needs no locking.
+ */
+public class Trace {
+    private final long startNanos = System.nanoTime();
+    private final long startEpochMicros = System.currentTimeMillis() * 1000;
+    private final ArrayList<Span> spans = new ArrayList<>(12);
+    private long lastMark = startNanos;
+    private long durationNanos;
+    private String name;
+    private Integer gameID;
+
+    /**
+     * @param offsetNanos when the stage began, relative to the start of the trace
+     */
+    public record Span(String stage, long offsetNanos, long durationNanos) {
+    }
+
+    Trace() {
+    }
+
+    public void mark(String stage) {
+        var now = System.nanoTime();
+        spans.add(new Span(stage, lastMark - startNanos, now - lastMark));
+        lastMark = now;
+    }
+
+    void finish(String name, Integer gameID) {
+        this.name = name;
+        this.gameID = gameID;
+        durationNanos = System.nanoTime() - startNanos;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public Integer gameID() {
+        return gameID;
+    }
+
+    public long startEpochMicros() {
+        return startEpochMicros;
+    }
+
+    public long durationNanos() {
+        return durationNanos;
+    }
+
+    public ArrayList<Span> spans() {
+        return spans;
+    }
+}
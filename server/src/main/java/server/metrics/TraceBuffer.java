@@ -0,0 +1,88 @@
+package server.metrics;
+
+import com.google.gson.Gson;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the most recent interesting traces in a fixed ring: every trace slower than
+ * the threshold, plus one in sampleEvery of the rest so there is a normal request to
+ * compare against. Older traces are overwritten, so memory use is bounded.
+ */
+public class TraceBuffer {
+    private final AtomicReferenceArray<Trace> ring;
+    private final AtomicLong next = new AtomicLong();
+    private final long slowNanos;
+    private final int sampleEvery;
+
+    public TraceBuffer(int capacity, Duration slow, int sampleEvery) {
+        ring = new AtomicReferenceArray<>(capacity);
+        slowNanos = slow.toNanos();
+        this.sampleEvery = Math.max(1, sampleEvery);
+    }
+
+    public Trace start() {
+        return new Trace();
+    }
+
+    public void finish(Trace trace, String name, Integer gameID) {
+        trace.finish(name, gameID);
+        if (trace.durationNanos() >= slowNanos || ThreadLocalRandom.current().nextInt(sampleEvery) == 0) {
+            ring.set((int) (next.getAndIncrement() % ring.length()), trace);
+        }
+    }
+
+    public ArrayList<Trace> recent() {
+        var res = new ArrayList<Trace>();
+        for (int i = 0; i < ring.length(); i++) {
+            var trace = ring.get(i);
+            if (trace != null) {
+                res.add(trace);
+            }
+        }
+        res.sort(Comparator.comparingLong(Trace::startEpochMicros));
+        return res;
+    }
+
+    /**
+     * The buffered traces in the Trace Event Format that chrome://tracing and Perfetto
+     * open. Each trace gets its own row, with one complete event for the whole request
+     * and one for each of its stages.
+     */
+    public String toJson() {
+        var events = new ArrayList<Map<String, Object>>();
+        var row = 0;
+        for (var trace : recent()) {
+            row++;
+            var args = new LinkedHashMap<String, Object>();
+            args.put("gameID", trace.gameID());
+            args.put("slow", trace.durationNanos() >= slowNanos);
+            events.add(event(trace.name(), row, trace.startEpochMicros(), trace.durationNanos(), args));
+            for (var span : trace.spans()) {
+                events.add(event(span.stage(), row, trace.startEpochMicros() + span.offsetNanos() / 1000, span.durationNanos(), null));
+            }
+        }
+        return new Gson().toJson(Map.of("traceEvents", events, "displayTimeUnit", "ms"));
+    }
+
+    private static Map<String, Object> event(String name, int row, long startMicros, long durationNanos, Map<String, Object> args) {
+        var event = new LinkedHashMap<String, Object>();
+        event.put("name", name);
+        event.put("ph", "X");
+        event.put("pid", 1);
+        event.put("tid", row);
+        event.put("ts", startMicros);
+        event.put("dur", durationNanos / 1000.0);
+        if (args != null) {
+            event.put("args", args);
+        }
+        return event;
+    }
+}
@@ -0,0 +1,23 @@
+package server.websocket;
+
+import java.io.IOException;
+
+/**
+ * Where a command's replies go: a socket connected to this node, or, for a command
+ * forwarded from another node, a socket connected there.
+ */
+interface Client {
+    /**
+     * @return the socket's session ID, unique across the cluster
+     */
+    String id();
+
+    void send(String message) throws IOException;
+
+    /**
+     * Starts sending the socket the game's broadcasts, on whichever node it is connected to.
+     */
+    void watch(int gameID);
+
+    void unwatch(int gameID);
+}
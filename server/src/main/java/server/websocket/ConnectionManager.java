@@ -3,28 +3,137 @@ package server.websocket;
 import org.eclipse.jetty.websocket.api.Session;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * The sockets connected to this node and the games each one watches. One socket can
+ * watch any number of games, so a broadcast looks up the game's watchers instead of
+ * going through every socket.
+ */
 public class ConnectionManager {
-    public final ConcurrentHashMap<Session, Session> connections = new ConcurrentHashMap<>();
-    public final HashMap<Session, Integer> games = new HashMap<>();
-    public void add(Session session, int game) {
-        connections.put(session, session);
-        games.put(session, game);
+    private final ConcurrentHashMap<Integer, Set<Session>> watchers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Session, Set<Integer>> watching = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Session, String> ids = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    // by client ID then game, so sockets on other nodes whose commands this node runs have them too
+    private final ConcurrentHashMap<String, ConcurrentHashMap<Integer, SessionIdentity>> identities = new ConcurrentHashMap<>();
+    private final String node;
+    private final AtomicLong nextID = new AtomicLong();
+
+    /**
+     * @param node prefixes every session ID, making it unique across the cluster
+     */
+    public ConnectionManager(String node) {
+        this.node = node;
+    }
+
+    public void watch(Session session, int game) {
+        watching.computeIfAbsent(session, key -> ConcurrentHashMap.newKeySet()).add(game);
+        watchers.computeIfAbsent(game, key -> ConcurrentHashMap.newKeySet()).add(session);
+    }
+
+    /**
+     * Stops sending the session this game's broadcasts; it can still be replied to.
+     */
+    public void unwatch(Session session, int game) {
+        var games = watching.get(session);
+        if (games != null) {
+            games.remove(game);
+        }
+        watchers.computeIfPresent(game, (key, sessions) -> {
+            sessions.remove(session);
+            return sessions.isEmpty() ? null : sessions;
+        });
     }
 
     public void remove(Session session) {
-        connections.remove(session);
+        var games = watching.remove(session);
+        if (games != null) {
+            for (var game : games) {
+                unwatch(session, game);
+            }
+        }
+        var id = ids.remove(session);
+        if (id != null) {
+            sessions.remove(id);
+            identities.remove(id);
+        }
+    }
+
+    public String id(Session session) {
+        return ids.computeIfAbsent(session, key -> {
+            var id = node + "/" + nextID.incrementAndGet();
+            sessions.put(id, key);
+            return id;
+        });
+    }
+
+    /**
+     * @return the session, or null if it is not connected to this node
+     */
+    public Session session(String id) {
+        return sessions.get(id);
+    }
+
+    public void bind(String clientID, SessionIdentity identity) {
+        identities.computeIfAbsent(clientID, key -> new ConcurrentHashMap<>()).put(identity.gameID(), identity);
+    }
+
+    public SessionIdentity identity(String clientID, int gameID) {
+        var games = identities.get(clientID);
+        return games == null ? null : games.get(gameID);
+    }
+
+    /**
+     * @return who the client connected as in any game, or null if it has not connected
+     */
+    public String username(String clientID) {
+        var games = identities.get(clientID);
+        if (games == null) {
+            return null;
+        }
+        for (var identity : games.values()) {
+            return identity.username();
+        }
+        return null;
+    }
+
+    public void forget(String clientID, int gameID) {
+        var games = identities.get(clientID);
+        if (games != null) {
+            games.remove(gameID);
+        }
     }
 
-    public void broadcast(Session excludeSession, String msg, int game) throws IOException {
-        for (Session c : connections.values()) {
-            if (c.isOpen()) {
-                if (!c.equals(excludeSession) && games.get(c) == game) {
-                    c.getRemote().sendString(msg);
-                }
+    public void forget(String clientID) {
+        identities.remove(clientID);
+    }
+
+    public void revoke(String authToken) {
+        for (var games : identities.values()) {
+            games.values().removeIf(identity -> identity.authToken().equals(authToken));
+        }
+    }
+
+    public void revokeAll() {
+        identities.clear();
+    }
+
+    /**
+     * @param excludeID the client ID of a session not to send to, or null
+     */
+    public void broadcast(String excludeID, String msg, int game) throws IOException {
+        var exclude = excludeID == null ? null : sessions.get(excludeID);
+        var gameWatchers = watchers.get(game);
+        if (gameWatchers == null) {
+            return;
+        }
+        for (Session c : gameWatchers) {
+            if (c.isOpen() && !c.equals(exclude)) {
+                c.getRemote().sendString(msg);
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,12 @@
+package server.websocket;
+
+import chess.ChessGame;
+
+/**
+ * Who is on the other end of a WebSocket session, as established at CONNECT.
+ * A null color means the session is observing. Once recheckAt (epoch millis) passes,
+ * the token is authenticated again before the identity is trusted, so an expired token
+ * does not live on in an open socket.
+ */
+public record SessionIdentity(String authToken, String username, int gameID, ChessGame.TeamColor color, long recheckAt) {
+}
@@ -3,28 +3,95 @@ package server.websocket;
 import chess.ChessGame;
 import chess.ChessMove;
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
 import dataaccess.DataAccess;
 import dataaccess.DataAccessException;
 import io.javalin.websocket.*;
 import model.GameData;
 import org.jetbrains.annotations.NotNull;
+import server.RateLimiter;
+import server.cluster.GameEvent;
+import server.cluster.ClusterNode;
+import server.cluster.LocalEventBus;
+import server.metrics.Metrics;
+import server.metrics.Trace;
+import server.metrics.TraceBuffer;
+import service.Service;
 import websocket.commands.UserGameCommand;
 import org.eclipse.jetty.websocket.api.Session;
 import websocket.messages.ServerMessage;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static chess.ChessGame.TeamColor.BLACK;
 import static chess.ChessGame.TeamColor.WHITE;
 
 public class WebSocketHandler implements WsConnectHandler, WsMessageHandler, WsCloseHandler {
 
-    private final ConnectionManager connections = new ConnectionManager();
+    private static final int MAX_UPDATE_ATTEMPTS = 5;
+    private static final int COMMAND_WORKERS = 8;
+    // how long a bound identity is trusted before its token is checked again
+    private static final long IDENTITY_RECHECK_MILLIS = Duration.ofMinutes(1).toMillis();
+
+    private final ConnectionManager connections;
     private final DataAccess dataAccess;
+    private final Service service;
+    private final Metrics.LatencyFamily commandLatency;
+    private final TraceBuffer traces;
+    private final RateLimiter sessionLimiter;
+    private final RateLimiter userLimiter;
+    private final Metrics.CounterFamily rateLimited;
+    private final ClusterNode cluster;
+    private final Runnable unsubscribe;
+    // forwarded commands for one game go to the same worker, so they still run in the order sent
+    private final ExecutorService[] commandWorkers = new ExecutorService[COMMAND_WORKERS];
+
+    public WebSocketHandler(DataAccess dataAccess, Service service) {
+        this(dataAccess, service, new Metrics(), new TraceBuffer(1, Duration.ofDays(1), Integer.MAX_VALUE),
+                new RateLimiter(0, 0, 0), new RateLimiter(0, 0, 0),
+                new ClusterNode(UUID.randomUUID().toString(), new LocalEventBus()));
+    }
 
-    public WebSocketHandler(DataAccess dataAccess) {
+    /**
+     * @param sessionLimiter limits the commands each socket may send
+     * @param userLimiter limits the commands each user may send across all of their sockets
+     * @param cluster decides which node runs each game's commands, and reaches the other nodes
+     */
+    public WebSocketHandler(DataAccess dataAccess, Service service, Metrics metrics, TraceBuffer traces,
+                            RateLimiter sessionLimiter, RateLimiter userLimiter, ClusterNode cluster) {
         this.dataAccess = dataAccess;
+        this.service = service;
+        this.traces = traces;
+        this.sessionLimiter = sessionLimiter;
+        this.userLimiter = userLimiter;
+        commandLatency = metrics.latency("chess_ws_command_duration_seconds",
+                "Time from receiving a WebSocket command to having sent every message it causes.", "command");
+        rateLimited = metrics.counter("chess_rate_limited_total",
+                "Requests and commands turned away for going over a rate limit.", "limit");
+        this.cluster = cluster;
+        connections = new ConnectionManager(cluster.name());
+        for(int i = 0; i < COMMAND_WORKERS; i++) {
+            var name = "forwarded-commands-" + i;
+            commandWorkers[i] = Executors.newSingleThreadExecutor(runnable -> {
+                var thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        unsubscribe = cluster.subscribe(this::onEvent);
+    }
+
+    public void close() {
+        unsubscribe.run();
+        cluster.close();
+        for(var worker : commandWorkers) {
+            worker.shutdown();
+        }
     }
 
 
@@ -37,113 +104,359 @@ public class WebSocketHandler implements WsConnectHandler, WsMessageHandler, WsC
     @Override
     public void handleClose(@NotNull WsCloseContext ctx) {
         System.out.println("Websocket closed");
+        var id = connections.id(ctx.session);
+        connections.remove(ctx.session);
+        sessionLimiter.forget(ctx.session);
+        // the node that ran this socket's commands may have cached who it was
+        cluster.publish(new GameEvent(GameEvent.Type.CLOSED, cluster.name(), null, 0, id, null));
+    }
+
+    /**
+     * Forgets every session identity bound to a token that has been logged out, so
+     * the next command from those sessions is checked against the database again.
+     * Other nodes are told too, and revoke it in their own signed tokens.
+     */
+    public void revokeToken(String authToken) {
+        connections.revoke(authToken);
+        cluster.publish(new GameEvent(GameEvent.Type.REVOKE_TOKEN, cluster.name(), null, 0, null, authToken));
+    }
+
+    public void revokeAllTokens() {
+        connections.revokeAll();
+        var revokedThrough = service.tokensRevokedThrough();
+        cluster.publish(new GameEvent(GameEvent.Type.REVOKE_ALL, cluster.name(), null, 0, null,
+                revokedThrough == null ? null : Long.toString(revokedThrough)));
+    }
+
+    /**
+     * Sends to this node's sockets watching the game, then to every other node's.
+     * @param excludeID the client ID of a socket not to send to, on whichever node it is
+     */
+    private void broadcast(String excludeID, String msg, int gameID) throws IOException {
+        connections.broadcast(excludeID, msg, gameID);
+        cluster.publish(new GameEvent(GameEvent.Type.BROADCAST, cluster.name(), null, gameID, excludeID, msg));
+    }
+
+    private void onEvent(GameEvent event) {
+        try {
+            switch(event.type()) {
+                case BROADCAST -> connections.broadcast(event.session(), event.payload(), event.gameID());
+                case REVOKE_TOKEN -> {
+                    connections.revoke(event.payload());
+                    service.revokeLoggedOutElsewhere(event.payload());
+                }
+                case REVOKE_ALL -> {
+                    connections.revokeAll();
+                    if(event.payload() != null) {
+                        service.revokeClearedElsewhere(Long.parseLong(event.payload()));
+                    }
+                }
+                // off the bus's receive thread, so one slow game does not hold up every other event from that node
+                case COMMAND -> commandWorkers[Math.floorMod(event.gameID(), COMMAND_WORKERS)].execute(() -> runForwarded(event));
+                case REPLY -> {
+                    var session = connections.session(event.session());
+                    if(session != null && session.isOpen()) {
+                        session.getRemote().sendString(event.payload());
+                    }
+                }
+                case WATCH, UNWATCH -> {
+                    var session = connections.session(event.session());
+                    if(session != null && event.type() == GameEvent.Type.WATCH) {
+                        connections.watch(session, event.gameID());
+                    } else if(session != null) {
+                        connections.unwatch(session, event.gameID());
+                    }
+                }
+                case CLOSED -> connections.forget(event.session());
+                case HEARTBEAT -> {
+                }
+            }
+        } catch(Exception ex) {
+            System.out.println("Handling game event failed: " + ex.getMessage());
+        }
+    }
+
+    private void runForwarded(GameEvent event) {
+        try {
+            run(event.payload(), new RemoteClient(event.origin(), event.session()), null);
+        } catch(Exception ex) {
+            System.out.println("Forwarded command failed: " + ex.getMessage());
+        }
+    }
+
+    private class LocalClient implements Client {
+        private final String id;
+        private final Session session;
+
+        private LocalClient(String id, Session session) {
+            this.id = id;
+            this.session = session;
+        }
+
+        @Override
+        public String id() {
+            return id;
+        }
+
+        @Override
+        public void send(String message) throws IOException {
+            session.getRemote().sendString(message);
+        }
+
+        @Override
+        public void watch(int gameID) {
+            connections.watch(session, gameID);
+        }
+
+        @Override
+        public void unwatch(int gameID) {
+            connections.unwatch(session, gameID);
+        }
+    }
+
+    /**
+     * A socket on the node that forwarded the command; replies are sent back there.
+     */
+    private class RemoteClient implements Client {
+        private final String node;
+        private final String id;
+
+        private RemoteClient(String node, String id) {
+            this.node = node;
+            this.id = id;
+        }
+
+        @Override
+        public String id() {
+            return id;
+        }
+
+        @Override
+        public void send(String message) {
+            cluster.publish(new GameEvent(GameEvent.Type.REPLY, cluster.name(), node, 0, id, message));
+        }
+
+        // published before any broadcast that should reach the socket, and the bus keeps that order
+        @Override
+        public void watch(int gameID) {
+            cluster.publish(new GameEvent(GameEvent.Type.WATCH, cluster.name(), node, gameID, id, null));
+        }
+
+        @Override
+        public void unwatch(int gameID) {
+            cluster.publish(new GameEvent(GameEvent.Type.UNWATCH, cluster.name(), node, gameID, id, null));
+        }
     }
 
     @Override
     public void handleMessage(@NotNull WsMessageContext ctx) throws Exception {
+        if(!allowed(ctx.session)) {
+            return;
+        }
+        run(ctx.message(), new LocalClient(connections.id(ctx.session), ctx.session), ctx.session);
+    }
+
+    /**
+     * Runs a command here if this node owns its game, and otherwise forwards it to the
+     * node that does, so each game has a single writer.
+     * @param session the socket the command arrived on, or null for a forwarded command
+     */
+    private void run(String message, Client client, Session session) throws Exception {
+        var start = System.nanoTime();
+        var trace = traces.start();
+        UserGameCommand cmd = null;
+        var name = "FORWARD";
         try {
-            UserGameCommand cmd = new Gson().fromJson(ctx.message(), UserGameCommand.class);
-            switch(cmd.getCommandType()) {
-                case CONNECT -> connect(cmd.getAuthToken(), cmd.getGameID(), ctx.session);
-                case MAKE_MOVE -> makeMove(cmd.getAuthToken(), cmd.getGameID(), cmd.getMove(), ctx.session);
-                case LEAVE -> leave(cmd.getAuthToken(), cmd.getGameID(), ctx.session);
-                case RESIGN -> resign(cmd.getAuthToken(), cmd.getGameID(), ctx.session);
+            cmd = new Gson().fromJson(message, UserGameCommand.class);
+            trace.mark("parse");
+            var gameID = cmd.getGameID();
+            if(session != null && gameID != null && !cluster.owns(gameID)) {
+                cluster.publish(new GameEvent(GameEvent.Type.COMMAND, cluster.name(), cluster.owner(gameID), gameID, client.id(), message));
+            } else if(cmd.getCommandType() != null) {
+                name = cmd.getCommandType().name();
+                if(gameID == null) {
+                    // every command names the game it is for, since one socket may follow several
+                    var errorMsg = new ServerMessage(ServerMessage.ServerMessageType.ERROR, "Missing game ID", null);
+                    client.send(new Gson().toJson(errorMsg));
+                    return;
+                }
+                if(!userAllowed(client, gameID)) {
+                    return;
+                }
+                switch(cmd.getCommandType()) {
+                    case CONNECT -> connect(cmd.getAuthToken(), gameID, client);
+                    case MAKE_MOVE -> makeMove(cmd.getAuthToken(), gameID, cmd.getMove(), client, trace);
+                    case LEAVE -> leave(cmd.getAuthToken(), gameID, client);
+                    case RESIGN -> resign(cmd.getAuthToken(), gameID, client);
+                    case SUBSCRIBE -> subscribe(cmd.getAuthToken(), gameID, client);
+                    case UNSUBSCRIBE -> client.unwatch(gameID);
+                }
             }
+        } catch(JsonParseException ex) {
+            var errorMsg = new ServerMessage(ServerMessage.ServerMessageType.ERROR, "Invalid command", null);
+            client.send(new Gson().toJson(errorMsg));
         } catch(IOException ex) {
             ex.printStackTrace();
+        } catch(RuntimeException ex) {
+            // answered on the socket, which stays open for the client's other games
+            ex.printStackTrace();
+            var errorMsg = new ServerMessage(ServerMessage.ServerMessageType.ERROR, "Command failed", cmd == null ? null : cmd.getGameID());
+            client.send(new Gson().toJson(errorMsg));
+        } finally {
+            if(cmd != null && cmd.getCommandType() != null) {
+                commandLatency.histogram(name).record(System.nanoTime() - start);
+                traces.finish(trace, name, cmd.getGameID());
+            }
+        }
+    }
+
+    /**
+     * Turns a command away, before it is even parsed, when its socket has run out of
+     * permits.
+     */
+    private boolean allowed(Session session) throws IOException {
+        if(sessionLimiter.tryAcquire(session)) {
+            return true;
         }
+        rateLimited.counter("ws_session").increment();
+        var errorMsg = new ServerMessage(ServerMessage.ServerMessageType.ERROR, "Too many commands, slow down", null);
+        session.getRemote().sendString(new Gson().toJson(errorMsg));
+        return false;
+    }
+
+    /**
+     * Charges the user behind a command on the node that runs it. Only the node that
+     * ran CONNECT knows who a socket belongs to, and for a game owned elsewhere that is
+     * the owner, not the node holding the socket. A user is only known once one of
+     * their sockets has connected; until then connect() charges them instead.
+     */
+    private boolean userAllowed(Client client, Integer gameID) throws IOException {
+        var username = connections.username(client.id());
+        if(username == null || userLimiter.tryAcquire(username)) {
+            return true;
+        }
+        rateLimited.counter("ws_user").increment();
+        var errorMsg = new ServerMessage(ServerMessage.ServerMessageType.ERROR, "Too many commands, slow down", gameID);
+        client.send(new Gson().toJson(errorMsg));
+        return false;
     }
 
-    private void resign(String authToken, Integer gameID, Session session) throws IOException, DataAccessException {
-        if(checkAuth(authToken, session)) {
+    private void resign(String authToken, Integer gameID, Client client) throws Exception {
+        var identity = identify(authToken, gameID, client);
+        if(identity == null) {
             return;
         }
-        var username = dataAccess.findAuth(authToken);
+        retryOnConflict(client, gameID, () -> tryResign(identity, gameID, client));
+    }
+
+    private boolean tryResign(SessionIdentity identity, Integer gameID, Client client) throws IOException, DataAccessException {
+        var username = identity.username();
+        var revision = dataAccess.getGameRevision(gameID);
         GameData gameData = dataAccess.getGame(gameID);
-        if(!Objects.equals(gameData.blackUsername(), username) && !Objects.equals(gameData.whiteUsername(), username)) {
+        if(revision == null || gameData == null) {
+            var errorString = "Invalid game";
+            var errorMsg = new ServerMessage(ServerMessage.ServerMessageType.ERROR, errorString, gameID);
+            client.send(new Gson().toJson(errorMsg));
+            return true;
+        }
+        if(seatColor(identity, gameData) == null) {
             var errorString = "Trying to resign as an observer";
-            var errorMsg = new ServerMessage(ServerMessage.ServerMessageType.ERROR, errorString);
-            session.getRemote().sendString(new Gson().toJson(errorMsg));
-            return;
+            var errorMsg = new ServerMessage(ServerMessage.ServerMessageType.ERROR, errorString, gameID);
+            client.send(new Gson().toJson(errorMsg));
+            return true;
         }
         if(gameData.game().gameOver()) {
             var errorString = "Game is already over";
-            var errorMsg = new ServerMessage(ServerMessage.ServerMessageType.ERROR, errorString);
-            session.getRemote().sendString(new Gson().toJson(errorMsg));
-            return;
+            var errorMsg = new ServerMessage(ServerMessage.ServerMessageType.ERROR, errorString, gameID);
+            client.send(new Gson().toJson(errorMsg));
+            return true;
         }
         var game = gameData.game();
         game.setGameOver(true);
         var newGameData = new GameData(gameData.gameID(), gameData.whiteUsername(), gameData.blackUsername(), gameData.gameName(), game);
-        dataAccess.updateGame(newGameData);
+        if(!dataAccess.updateGame(newGameData, revision)) {
+            return false;
+        }
 
         var notifString = String.format("%s resigned from game %d", username, gameData.gameID());
-        var notifMsg = new ServerMessage(ServerMessage.ServerMessageType.NOTIFICATION, notifString);
-        connections.broadcast(null, new Gson().toJson(notifMsg), gameData.gameID());
+        var notifMsg = new ServerMessage(ServerMessage.ServerMessageType.NOTIFICATION, notifString, gameID);
+        broadcast(null, new Gson().toJson(notifMsg), gameData.gameID());
+        return true;
     }
 
-    private void makeMove(String authToken, Integer gameID, ChessMove move, Session session) throws Exception {
-        if(checkAuth(authToken, session)) {
+    private void makeMove(String authToken, Integer gameID, ChessMove move, Client client, Trace trace) throws Exception {
+        var identity = identify(authToken, gameID, client);
+        trace.mark("auth");
+        if(identity == null) {
             return;
         }
-        var username = dataAccess.findAuth(authToken);
+        retryOnConflict(client, gameID, () -> tryMakeMove(identity, gameID, move, client, trace));
+    }
+
+    private boolean tryMakeMove(SessionIdentity identity, Integer gameID, ChessMove move, Client client, Trace trace) throws Exception {
+        var username = identity.username();
+        var revision = dataAccess.getGameRevision(gameID);
         GameData gameData = dataAccess.getGame(gameID);
-        if(gameData == null) {
+        trace.mark("getGame");
+        if(revision == null || gameData == null) {
             var errorString = "Invalid game";
-            var errorMsg = new ServerMessage(ServerMessage.ServerMessageType.ERROR, errorString);
-            session.getRemote().sendString(new Gson().toJson(errorMsg));
-            return;
-        }
-        ChessGame.TeamColor color = null;
-        if(Objects.equals(gameData.whiteUsername(), username)) {
-            color = WHITE;
-        } else if(Objects.equals(gameData.blackUsername(), username)) {
-            color = BLACK;
+            var errorMsg = new ServerMessage(ServerMessage.ServerMessageType.ERROR, errorString, gameID);
+            client.send(new Gson().toJson(errorMsg));
+            return true;
         }
+        ChessGame.TeamColor color = seatColor(identity, gameData);
         if(color == null) {
             var errorString = "Trying to make a move as an observer";
-            var errorMsg = new ServerMessage(ServerMessage.ServerMessageType.ERROR, errorString);
-            session.getRemote().sendString(new Gson().toJson(errorMsg));
-            return;
+            var errorMsg = new ServerMessage(ServerMessage.ServerMessageType.ERROR, errorString, gameID);
+            client.send(new Gson().toJson(errorMsg));
+            return true;
         }
         var game = gameData.game();
         if(game.getTeamTurn() != color) {
             var errorString = "Trying to move out of turn";
-            var errorMsg = new ServerMessage(ServerMessage.ServerMessageType.ERROR, errorString);
-            session.getRemote().sendString(new Gson().toJson(errorMsg));
-            return;
+            var errorMsg = new ServerMessage(ServerMessage.ServerMessageType.ERROR, errorString, gameID);
+            client.send(new Gson().toJson(errorMsg));
+            return true;
         }
         if(game.gameOver()) {
             var errorString = "Trying to move when game is over";
-            var errorMsg = new ServerMessage(ServerMessage.ServerMessageType.ERROR, errorString);
-            session.getRemote().sendString(new Gson().toJson(errorMsg));
-            return;
+            var errorMsg = new ServerMessage(ServerMessage.ServerMessageType.ERROR, errorString, gameID);
+            client.send(new Gson().toJson(errorMsg));
+            return true;
         }
         var currentBoard = game.getBoard();
         if(currentBoard.getPiece(move.getStartPosition()) == null) {
             var errorString = "Trying to move a nonexistent piece";
-            var errorMsg = new ServerMessage(ServerMessage.ServerMessageType.ERROR, errorString);
-            session.getRemote().sendString(new Gson().toJson(errorMsg));
-            return;
+            var errorMsg = new ServerMessage(ServerMessage.ServerMessageType.ERROR, errorString, gameID);
+            client.send(new Gson().toJson(errorMsg));
+            return true;
         } else if (currentBoard.getPiece(move.getStartPosition()).getTeamColor() != color) {
             var errorString = "Trying to move the other team's piece";
-            var errorMsg = new ServerMessage(ServerMessage.ServerMessageType.ERROR, errorString);
-            session.getRemote().sendString(new Gson().toJson(errorMsg));
-            return;
+            var errorMsg = new ServerMessage(ServerMessage.ServerMessageType.ERROR, errorString, gameID);
+            client.send(new Gson().toJson(errorMsg));
+            return true;
         }
+        trace.mark("checks");
         var validMoves = game.validMoves(move.getStartPosition());
+        trace.mark("validMoves");
         if(!validMoves.contains(move)) {
             var errorString = "Invalid move";
-            var errorMsg = new ServerMessage(ServerMessage.ServerMessageType.ERROR, errorString);
-            session.getRemote().sendString(new Gson().toJson(errorMsg));
-            return;
+            var errorMsg = new ServerMessage(ServerMessage.ServerMessageType.ERROR, errorString, gameID);
+            client.send(new Gson().toJson(errorMsg));
+            return true;
         }
         game.makeMove(move);
+        trace.mark("makeMove");
         var newGameData = new GameData(gameID, gameData.whiteUsername(), gameData.blackUsername(), gameData.gameName(), game);
-        dataAccess.updateGame(newGameData);
+        var recorded = dataAccess.recordMove(newGameData, move, revision);
+        trace.mark("updateGame");
+        if(!recorded) {
+            return false;
+        }
 
-        var loadMsg = new ServerMessage(ServerMessage.ServerMessageType.LOAD_GAME, Integer.toString(gameID));
-        connections.broadcast(null, new Gson().toJson(loadMsg), gameData.gameID());
+        var loadMsg = new ServerMessage(ServerMessage.ServerMessageType.LOAD_GAME, Integer.toString(gameID), gameID);
+        broadcast(null, new Gson().toJson(loadMsg), gameData.gameID());
+        trace.mark("broadcastBoard");
 
         var notifString = String.format("%s moved from %s to %s", username, move.getStartPosition().toString(), move.getEndPosition().toString());
 
@@ -160,23 +473,28 @@ public class WebSocketHandler implements WsConnectHandler, WsMessageHandler, WsC
         } else if(game.isInStalemate(WHITE)) {
             notifString += String.format("\n%s (white team) is in stalemate", gameData.whiteUsername());
         }
-        var notifMsg = new ServerMessage(ServerMessage.ServerMessageType.NOTIFICATION, notifString);
+        trace.mark("statusChecks");
+        var notifMsg = new ServerMessage(ServerMessage.ServerMessageType.NOTIFICATION, notifString, gameID);
         if(notifString.contains("is in")) {
-            connections.broadcast(null, new Gson().toJson(notifMsg), gameData.gameID());
+            broadcast(null, new Gson().toJson(notifMsg), gameData.gameID());
         }
         else {
-            connections.broadcast(session, new Gson().toJson(notifMsg), gameData.gameID());
+            broadcast(client.id(), new Gson().toJson(notifMsg), gameData.gameID());
         }
-
-
+        trace.mark("broadcastNotify");
+        return true;
     }
 
-    private void leave(String authToken, Integer gameID, Session session) throws DataAccessException, IOException {
-        connections.remove(session);
-        if(checkAuth(authToken, session)) {
+    private void leave(String authToken, Integer gameID, Client client) throws DataAccessException, IOException {
+        var identity = identify(authToken, gameID, client);
+        if(gameID != null) {
+            connections.forget(client.id(), gameID);
+            client.unwatch(gameID);
+        }
+        if(identity == null) {
             return;
         }
-        var username = dataAccess.findAuth(authToken);
+        var username = identity.username();
         var game = dataAccess.getGame(gameID);
         var player = true;
         if(game.blackUsername() != null && game.blackUsername().equals(username)) {
@@ -190,49 +508,139 @@ public class WebSocketHandler implements WsConnectHandler, WsMessageHandler, WsC
         }
         if(player) {
             var notifString = String.format("%s left game %d", username, gameID);
-            var notifMsg = new ServerMessage(ServerMessage.ServerMessageType.NOTIFICATION, notifString);
-            connections.broadcast(session, new Gson().toJson(notifMsg), gameID);
+            var notifMsg = new ServerMessage(ServerMessage.ServerMessageType.NOTIFICATION, notifString, gameID);
+            broadcast(client.id(), new Gson().toJson(notifMsg), gameID);
         } else {
             var notifString = String.format("%s stopped watching game %d", username, gameID);
-            var notifMsg = new ServerMessage(ServerMessage.ServerMessageType.NOTIFICATION, notifString);
-            connections.broadcast(session, new Gson().toJson(notifMsg), gameID);
+            var notifMsg = new ServerMessage(ServerMessage.ServerMessageType.NOTIFICATION, notifString, gameID);
+            broadcast(client.id(), new Gson().toJson(notifMsg), gameID);
         }
     }
 
-    private void connect(String authToken, int gameID, Session session) throws DataAccessException, IOException {
-        connections.add(session, gameID);
-        var username = dataAccess.findAuth(authToken);
-        if(dataAccess.listGames().size() < gameID) {
+    private void connect(String authToken, int gameID, Client client) throws DataAccessException, IOException {
+        var gameData = dataAccess.getGame(gameID);
+        if(gameData == null) {
             var errorString = "Invalid game ID";
-            var errorMsg = new ServerMessage(ServerMessage.ServerMessageType.ERROR, errorString);
-            session.getRemote().sendString(new Gson().toJson(errorMsg));
+            var errorMsg = new ServerMessage(ServerMessage.ServerMessageType.ERROR, errorString, gameID);
+            client.send(new Gson().toJson(errorMsg));
             return;
         }
-        if(checkAuth(authToken, session)) {
+        var username = service.authenticate(authToken);
+        if(username == null) {
+            var errorString = "Invalid auth token";
+            var errorMsg = new ServerMessage(ServerMessage.ServerMessageType.ERROR, errorString, gameID);
+            client.send(new Gson().toJson(errorMsg));
             return;
         }
-        var gameData = dataAccess.getGame(gameID);
+        if(connections.username(client.id()) == null && !userLimiter.tryAcquire(username)) {
+            rateLimited.counter("ws_user").increment();
+            var errorMsg = new ServerMessage(ServerMessage.ServerMessageType.ERROR, "Too many commands, slow down", gameID);
+            client.send(new Gson().toJson(errorMsg));
+            return;
+        }
+        var identity = new SessionIdentity(authToken, username, gameID, colorOf(gameData, username),
+                System.currentTimeMillis() + IDENTITY_RECHECK_MILLIS);
+        connections.bind(client.id(), identity);
+        client.watch(gameID);
         String notifString;
-        if(Objects.equals(gameData.blackUsername(), username)) {
+        if(identity.color() == BLACK) {
             notifString = String.format("%s joined game %d as black player", username, gameID);
-        } else if(Objects.equals(gameData.whiteUsername(), username)) {
+        } else if(identity.color() == WHITE) {
             notifString = String.format("%s joined game %d as white player", username, gameID);
         } else {
             notifString = String.format("%s started watching game %d", username, gameID);
         }
-        var notifMsg = new ServerMessage(ServerMessage.ServerMessageType.NOTIFICATION, notifString);
-        connections.broadcast(session, new Gson().toJson(notifMsg), gameID);
-        var loadMsg = new ServerMessage(ServerMessage.ServerMessageType.LOAD_GAME, Integer.toString(gameID));
-        session.getRemote().sendString(new Gson().toJson(loadMsg));
+        var notifMsg = new ServerMessage(ServerMessage.ServerMessageType.NOTIFICATION, notifString, gameID);
+        broadcast(client.id(), new Gson().toJson(notifMsg), gameID);
+        var loadMsg = new ServerMessage(ServerMessage.ServerMessageType.LOAD_GAME, Integer.toString(gameID), gameID);
+        client.send(new Gson().toJson(loadMsg));
+    }
+
+    /**
+     * Adds a game to those the socket follows, for watching many boards over one
+     * connection. Unlike CONNECT, nobody in the game is told.
+     */
+    private void subscribe(String authToken, int gameID, Client client) throws DataAccessException, IOException {
+        if(identify(authToken, gameID, client) == null) {
+            return;
+        }
+        if(!dataAccess.gameExists(gameID)) {
+            var errorString = "Invalid game ID";
+            var errorMsg = new ServerMessage(ServerMessage.ServerMessageType.ERROR, errorString, gameID);
+            client.send(new Gson().toJson(errorMsg));
+            return;
+        }
+        client.watch(gameID);
+        var loadMsg = new ServerMessage(ServerMessage.ServerMessageType.LOAD_GAME, Integer.toString(gameID), gameID);
+        client.send(new Gson().toJson(loadMsg));
     }
 
-    private boolean checkAuth(String authToken, Session session) throws DataAccessException, IOException {
-        if(dataAccess.findAuth(authToken) == null) {
+    /**
+     * Runs an update that reads the game's revision, loads the game and writes it back
+     * only if the revision is unchanged. When another writer got there first the
+     * update is run again against the fresh game instead of overwriting it.
+     */
+    private void retryOnConflict(Client client, int gameID, GameUpdate update) throws Exception {
+        for(int attempt = 0; attempt < MAX_UPDATE_ATTEMPTS; attempt++) {
+            if(update.attempt()) {
+                return;
+            }
+        }
+        var errorString = "Game is busy, try again";
+        var errorMsg = new ServerMessage(ServerMessage.ServerMessageType.ERROR, errorString, gameID);
+        client.send(new Gson().toJson(errorMsg));
+    }
+
+    private interface GameUpdate {
+        /**
+         * @return false if the game changed underneath this attempt and nothing was written
+         */
+        boolean attempt() throws Exception;
+    }
+
+    /**
+     * Resolves who sent a command. Sessions that completed CONNECT with the same token
+     * and game are answered from the identity bound to the session until its recheck
+     * time; anything else falls back to a single auth lookup.
+     */
+    private SessionIdentity identify(String authToken, Integer gameID, Client client) throws DataAccessException, IOException {
+        var identity = gameID == null ? null : connections.identity(client.id(), gameID);
+        var bound = identity != null && identity.authToken().equals(authToken);
+        var now = System.currentTimeMillis();
+        if(bound && now < identity.recheckAt()) {
+            return identity;
+        }
+        // the lookup also slides the token's expiry, so a socket in steady use stays logged in
+        var username = service.authenticate(authToken);
+        if(bound && identity.username().equals(username)) {
+            var refreshed = new SessionIdentity(authToken, username, identity.gameID(), identity.color(), now + IDENTITY_RECHECK_MILLIS);
+            connections.bind(client.id(), refreshed);
+            return refreshed;
+        }
+        if(username == null) {
             var errorString = "Invalid auth token";
-            var errorMsg = new ServerMessage(ServerMessage.ServerMessageType.ERROR, errorString);
-            session.getRemote().sendString(new Gson().toJson(errorMsg));
-            return true;
+            var errorMsg = new ServerMessage(ServerMessage.ServerMessageType.ERROR, errorString, gameID);
+            client.send(new Gson().toJson(errorMsg));
+            return null;
         }
-        return false;
+        return new SessionIdentity(authToken, username, gameID == null ? 0 : gameID, null, now + IDENTITY_RECHECK_MILLIS);
+    }
+
+    private ChessGame.TeamColor seatColor(SessionIdentity identity, GameData gameData) {
+        // the game is already loaded, so a seat that changed hands since CONNECT costs nothing to catch
+        var seated = identity.color() == WHITE ? gameData.whiteUsername() : gameData.blackUsername();
+        if(identity.color() != null && Objects.equals(seated, identity.username())) {
+            return identity.color();
+        }
+        return colorOf(gameData, identity.username());
+    }
+
+    private ChessGame.TeamColor colorOf(GameData gameData, String username) {
+        if(Objects.equals(gameData.whiteUsername(), username)) {
+            return WHITE;
+        } else if(Objects.equals(gameData.blackUsername(), username)) {
+            return BLACK;
+        }
+        return null;
     }
 }
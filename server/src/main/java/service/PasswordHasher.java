@@ -0,0 +1,124 @@
+package service;
+
+import org.mindrot.jbcrypt.BCrypt;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Runs BCrypt on its own small pool so a burst of logins uses at most that many cores,
+ * leaving the rest for requests that do not need a password. When the queue in front
+ * of the pool is full, callers are turned away at once rather than left waiting.
+ * <p>
+ * Hashes are made at the configured cost. A login whose stored hash has a different
+ * cost is rehashed in the background, so changing the cost reaches each user the next
+ * time they log in.
+ */
+public class PasswordHasher {
+    public static final int DEFAULT_COST = 10;
+    public static final int DEFAULT_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    public static final int DEFAULT_QUEUE = 64;
+    private static final AtomicInteger THREAD_IDS = new AtomicInteger();
+
+    private final int cost;
+    private final ThreadPoolExecutor pool;
+    private final ObjLongConsumer<String> timings;
+    private final LongAdder rejected = new LongAdder();
+
+    public PasswordHasher() {
+        this(DEFAULT_COST, DEFAULT_THREADS, DEFAULT_QUEUE, (operation, nanos) -> {});
+    }
+
+    /**
+     * @param timings told how long each "hash", "check", "rehash" and "queue" wait took, in nanoseconds
+     */
+    public PasswordHasher(int cost, int threads, int queueCapacity, ObjLongConsumer<String> timings) {
+        this.cost = cost;
+        this.timings = timings;
+        pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+            var thread = new Thread(runnable, "password-hasher-" + THREAD_IDS.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    public String hash(String password) throws ServiceException {
+        return run("hash", () -> BCrypt.hashpw(password, BCrypt.gensalt(cost)));
+    }
+
+    public boolean check(String password, String hash) throws ServiceException {
+        return run("check", () -> BCrypt.checkpw(password, hash));
+    }
+
+    public boolean needsRehash(String hash) {
+        // hashes look like $2a$10$..., where 10 is the cost
+        try {
+            return Integer.parseInt(hash.substring(4, 6)) != cost;
+        } catch(RuntimeException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Hashes the password at the current cost when the pool has room, and hands the new
+     * hash to onHashed. When it does not, nothing happens and the next login tries again.
+     */
+    public void rehashLater(String password, Consumer<String> onHashed) {
+        try {
+            pool.execute(() -> onHashed.accept(timed("rehash", () -> BCrypt.hashpw(password, BCrypt.gensalt(cost)))));
+        } catch(RejectedExecutionException ex) {
+            rejected.increment();
+        }
+    }
+
+    public int cost() {
+        return cost;
+    }
+
+    public int queued() {
+        return pool.getQueue().size();
+    }
+
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    private <T> T run(String operation, Supplier<T> work) throws ServiceException {
+        var submittedAt = System.nanoTime();
+        try {
+            return pool.submit(() -> {
+                timings.accept("queue", System.nanoTime() - submittedAt);
+                return timed(operation, work);
+            }).get();
+        } catch(RejectedExecutionException ex) {
+            rejected.increment();
+            throw new ServiceException("Error: server busy, try again", ServiceException.Code.TooManyRequestsError);
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException("Error: interrupted", ServiceException.Code.ServerError);
+        } catch(ExecutionException ex) {
+            if(ex.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new ServiceException("Error: " + ex.getCause().getMessage(), ServiceException.Code.ServerError);
+        }
+    }
+
+    private <T> T timed(String operation, Supplier<T> work) {
+        var start = System.nanoTime();
+        try {
+            return work.get();
+        } finally {
+            timings.accept(operation, System.nanoTime() - start);
+        }
+    }
+}
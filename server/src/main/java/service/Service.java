@@ -3,13 +3,70 @@ package service;
 import dataaccess.DataAccess;
 import dataaccess.DataAccessException;
 import model.*;
-import org.mindrot.jbcrypt.BCrypt;
+import java.util.ArrayList;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 public class Service {
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 200;
+    private static final int ARCHIVE_BATCH_SIZE = 100;
+    private static final int MAX_GAMES_PER_REQUEST = 1000;
     private final DataAccess dataAccess;
+    private final SignedTokens signedTokens;
+    private final PasswordHasher passwordHasher;
+    private final ArrayList<Consumer<String>> revocationListeners = new ArrayList<>();
     public Service(DataAccess dataAccess) {
+        this(dataAccess, null);
+    }
+
+    /**
+     * @param signedTokens if not null, auth tokens are signed and verified in memory
+     *                     instead of being stored in the auth table
+     */
+    public Service(DataAccess dataAccess, SignedTokens signedTokens) {
+        this(dataAccess, signedTokens, new PasswordHasher());
+    }
+
+    public Service(DataAccess dataAccess, SignedTokens signedTokens, PasswordHasher passwordHasher) {
         this.dataAccess = dataAccess;
+        this.signedTokens = signedTokens;
+        this.passwordHasher = passwordHasher;
+    }
+
+    /**
+     * Registers a callback that is handed each auth token as it is logged out, for
+     * anything that caches identities outside the database.
+     */
+    public void addRevocationListener(Consumer<String> listener) {
+        revocationListeners.add(listener);
+    }
+
+    /**
+     * Revokes a token that was logged out on another server node sharing this one's
+     * token key. Revocation listeners are not told, since that node told its own peers.
+     */
+    public void revokeLoggedOutElsewhere(String authToken) {
+        if(signedTokens != null) {
+            signedTokens.revoke(authToken);
+        }
+    }
+
+    /**
+     * @param revokedThrough the other node's tokensRevokedThrough() after its clear
+     */
+    public void revokeClearedElsewhere(long revokedThrough) {
+        if(signedTokens != null) {
+            signedTokens.revokeIssuedThrough(revokedThrough);
+        }
+    }
+
+    /**
+     * @return the issue time signed tokens must be later than since the last clear, or
+     * null if tokens are kept in the database, where a clear on one node reaches them all
+     */
+    public Long tokensRevokedThrough() {
+        return signedTokens == null ? null : signedTokens.revokedThrough();
     }
 
     public LoginResult register(RegisterRequest registerRequest) throws Exception {
@@ -20,8 +77,7 @@ public class Service {
         if(existingUser == null) {
             var userData = new UserData(registerRequest.username(), hashPassword(registerRequest.password()), registerRequest.email());
             dataAccess.saveUser(userData);
-            String authToken = generateToken();
-            dataAccess.addAuth(new AuthData(authToken, registerRequest.username()));
+            String authToken = issueToken(registerRequest.username());
             return new LoginResult(userData.username(), authToken);
         }
         else {
@@ -37,19 +93,27 @@ public class Service {
         if(existingUser == null) {
             throw new ServiceException("Error: Username not found", ServiceException.Code.NotFoundError);
         }
-        if(!verifyUser(loginRequest.username(), loginRequest.password())) {
+        if(!passwordHasher.check(loginRequest.password(), existingUser.password())) {
             throw new ServiceException("Error: Password incorrect", ServiceException.Code.IncorrectPasswordError);
         }
-        var authToken = "";
         var username = existingUser.username();
-        authToken = generateToken();
-        dataAccess.addAuth(new AuthData(authToken, username));
+        if(passwordHasher.needsRehash(existingUser.password())) {
+            passwordHasher.rehashLater(loginRequest.password(), hash -> updatePassword(username, hash));
+        }
+        var authToken = issueToken(username);
         return new LoginResult(username, authToken);
     }
 
     public void logout(AuthorizationRequest logoutRequest) throws Exception{
         checkAuthorization(logoutRequest);
-        dataAccess.deleteAuth(logoutRequest.authToken());
+        if(signedTokens != null) {
+            signedTokens.revoke(logoutRequest.authToken());
+        } else {
+            dataAccess.deleteAuth(logoutRequest.authToken());
+        }
+        for(var listener : revocationListeners) {
+            listener.accept(logoutRequest.authToken());
+        }
     }
 
     public ListGamesResult listGames(AuthorizationRequest listGamesRequest) throws Exception{
@@ -57,6 +121,59 @@ public class Service {
         return new ListGamesResult(dataAccess.listGames());
     }
 
+    public ListGameSummariesResult listGameSummaries(ListGameSummariesRequest request) throws Exception {
+        checkAuthorization(new AuthorizationRequest(request.authToken()));
+        if(request.limit() < 0 || request.afterGameID() < 0) {
+            throw new ServiceException("Error: Bad request", ServiceException.Code.BadRequestError);
+        }
+        var limit = request.limit() == 0 ? DEFAULT_PAGE_SIZE : Math.min(request.limit(), MAX_PAGE_SIZE);
+        var games = dataAccess.listGameSummaries(request.afterGameID(), limit, request.openSeats(), request.status());
+        Integer nextCursor = games.size() < limit ? null : games.getLast().gameID();
+        return new ListGameSummariesResult(games, nextCursor);
+    }
+
+    public ListGameSummariesResult listArchivedGames(ArchivedGamesRequest request) throws Exception {
+        checkAuthorization(new AuthorizationRequest(request.authToken()));
+        if(request.limit() < 0 || request.afterGameID() < 0) {
+            throw new ServiceException("Error: Bad request", ServiceException.Code.BadRequestError);
+        }
+        var limit = request.limit() == 0 ? DEFAULT_PAGE_SIZE : Math.min(request.limit(), MAX_PAGE_SIZE);
+        var games = dataAccess.listArchivedGames(request.username(), request.afterGameID(), limit);
+        Integer nextCursor = games.size() < limit ? null : games.getLast().gameID();
+        return new ListGameSummariesResult(games, nextCursor);
+    }
+
+    /**
+     * Moves finished games out of the live tables, a batch at a time.
+     * @return how many games were archived
+     */
+    public int archiveFinishedGames() throws DataAccessException {
+        var total = 0;
+        int archived;
+        do {
+            archived = dataAccess.archiveFinishedGames(ARCHIVE_BATCH_SIZE);
+            total += archived;
+        } while(archived == ARCHIVE_BATCH_SIZE);
+        return total;
+    }
+
+    public GetGameResult getGame(GetGameRequest getGameRequest) throws Exception {
+        checkAuthorization(new AuthorizationRequest(getGameRequest.authToken()));
+        // read the revision before the game so the revision never claims a newer state than the body holds
+        var revision = dataAccess.getGameRevision(getGameRequest.gameID());
+        if(revision == null) {
+            throw new ServiceException("Error: game not found", ServiceException.Code.GameNotFoundError);
+        }
+        if(revision.equals(getGameRequest.knownRevision())) {
+            return new GetGameResult(revision, null);
+        }
+        var gameData = dataAccess.getGame(getGameRequest.gameID());
+        if(gameData == null) {
+            throw new ServiceException("Error: game not found", ServiceException.Code.GameNotFoundError);
+        }
+        return new GetGameResult(revision, gameData);
+    }
+
     public CreateGameResult createGame(CreateGameRequest createGameRequest) throws Exception{
         if(createGameRequest.gameName() == null) {
             throw new ServiceException("Error: Bad request", ServiceException.Code.BadRequestError);
@@ -67,47 +184,84 @@ public class Service {
         return new CreateGameResult(gameID);
     }
 
+    public CreateGamesResult createGames(CreateGamesRequest createGamesRequest) throws Exception {
+        var gameNames = createGamesRequest.gameNames();
+        if(gameNames == null || gameNames.isEmpty() || gameNames.size() > MAX_GAMES_PER_REQUEST || gameNames.contains(null)) {
+            throw new ServiceException("Error: Bad request", ServiceException.Code.BadRequestError);
+        }
+        checkAuthorization(new AuthorizationRequest(createGamesRequest.authToken()));
+        return new CreateGamesResult(dataAccess.createGames(gameNames));
+    }
+
     public void joinGame(JoinGameRequest joinGameRequest) throws Exception{
         if(joinGameRequest.playerColor() == null || joinGameRequest.gameID() == 0) {
             throw new ServiceException("Error: Bad request", ServiceException.Code.BadRequestError);
         }
-        checkAuthorization(new AuthorizationRequest(joinGameRequest.authToken()));
-        var desiredGame = dataAccess.getGame(joinGameRequest.gameID());
-        if(desiredGame == null) {
-            throw new ServiceException("Error: game not found", ServiceException.Code.GameNotFoundError);
+        var username = checkAuthorization(new AuthorizationRequest(joinGameRequest.authToken()));
+        if(dataAccess.addPlayerToGame(username, joinGameRequest.playerColor(), joinGameRequest.gameID())) {
+            return;
         }
-        var existingPlayer = switch(joinGameRequest.playerColor())
-        {case BLACK -> desiredGame.blackUsername(); case WHITE -> desiredGame.whiteUsername();};
-        if(existingPlayer != null) {
-            throw new ServiceException("Error: already taken", ServiceException.Code.ColorNotAvailableError);
+        // the claim only says it failed, so work out why after the fact
+        if(!dataAccess.gameExists(joinGameRequest.gameID())) {
+            throw new ServiceException("Error: game not found", ServiceException.Code.GameNotFoundError);
         }
-        dataAccess.addPlayerToGame(joinGameRequest.authToken(), joinGameRequest.playerColor(), joinGameRequest.gameID());
+        throw new ServiceException("Error: already taken", ServiceException.Code.ColorNotAvailableError);
     }
 
     public void clear() throws Exception {
         dataAccess.clearData();
+        if(signedTokens != null) {
+            signedTokens.revokeAll();
+        }
     }
 
     public static String generateToken() {
         return UUID.randomUUID().toString();
     }
 
-    public void checkAuthorization(AuthorizationRequest authorizationRequest) throws Exception {
+    private String issueToken(String username) throws DataAccessException {
+        if(signedTokens != null) {
+            return signedTokens.issue(username);
+        }
+        var authToken = generateToken();
+        dataAccess.addAuth(new AuthData(authToken, username));
+        return authToken;
+    }
+
+    /**
+     * @return the username the token belongs to, or null if it is not a live token
+     */
+    public String authenticate(String authToken) throws DataAccessException {
+        if(authToken == null) {
+            return null;
+        }
+        if(signedTokens != null) {
+            return signedTokens.verify(authToken);
+        }
+        return dataAccess.findAuth(authToken);
+    }
+
+    public String checkAuthorization(AuthorizationRequest authorizationRequest) throws Exception {
         if(authorizationRequest.authToken() == null) {
             throw new ServiceException("Error: Bad request, null auth token", ServiceException.Code.BadRequestError);
         }
-        if(dataAccess.findAuth(authorizationRequest.authToken()) == null) {
+        var username = authenticate(authorizationRequest.authToken());
+        if(username == null) {
             throw new ServiceException("Error: AuthToken not found", ServiceException.Code.NotLoggedInError);
         }
+        return username;
     }
 
-    String hashPassword(String clearTextPassword) {
-        return BCrypt.hashpw(clearTextPassword, BCrypt.gensalt());
+    String hashPassword(String clearTextPassword) throws ServiceException {
+        return passwordHasher.hash(clearTextPassword);
     }
 
-    boolean verifyUser(String username, String providedClearTextPassword) throws DataAccessException {
-        // read the previously hashed password from the database
-        var hashedPassword = dataAccess.getUser(username).password();
-        return BCrypt.checkpw(providedClearTextPassword, hashedPassword);
+    private void updatePassword(String username, String passwordHash) {
+        try {
+            dataAccess.updatePassword(username, passwordHash);
+        } catch(DataAccessException e) {
+            // the old hash still works, so the next login just tries again
+            System.out.println(e.getMessage());
+        }
     }
 }
@@ -0,0 +1,148 @@
+package service;
+
+import dataaccess.BackgroundSweeper;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Stateless auth tokens of the form {@code username.issuedAt.expiresAt.signature},
+ * where the signature is an HMAC-SHA256 of the first three parts under a key only the
+ * server knows. Verifying a token needs no database; the only state is the set of
+ * tokens that were logged out before they expired.
+ */
+public class SignedTokens implements AutoCloseable {
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final Duration SWEEP_PERIOD = Duration.ofMinutes(1);
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SecretKeySpec key;
+    private final long ttlMillis;
+    private final ConcurrentHashMap<String, Long> revoked = new ConcurrentHashMap<>();
+    // inclusive, so a token issued in the same millisecond as a clear is revoked with it
+    private volatile long revokedThrough = -1;
+    private final ScheduledFuture<?> sweeper;
+
+    public SignedTokens(byte[] key, Duration ttl) {
+        this.key = new SecretKeySpec(key, ALGORITHM);
+        this.ttlMillis = ttl.toMillis();
+        sweeper = BackgroundSweeper.schedule(this::sweepRevoked, SWEEP_PERIOD);
+    }
+
+    public static byte[] randomKey() {
+        var key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        return key;
+    }
+
+    public String issue(String username) {
+        // after the last clear even if the clock has not moved on since, so the new token is not born revoked
+        var issuedAt = Math.max(System.currentTimeMillis(), revokedThrough + 1);
+        var payload = ENCODER.encodeToString(username.getBytes(StandardCharsets.UTF_8)) + "." + issuedAt + "." + (issuedAt + ttlMillis);
+        return payload + "." + sign(payload);
+    }
+
+    /**
+     * @return the username the token was issued to, or null if the token is forged,
+     * malformed, expired or revoked
+     */
+    public String verify(String token) {
+        var lastDot = token.lastIndexOf('.');
+        if (lastDot < 0) {
+            return null;
+        }
+        var payload = token.substring(0, lastDot);
+        var signature = token.substring(lastDot + 1).getBytes(StandardCharsets.UTF_8);
+        if (!MessageDigest.isEqual(signature, sign(payload).getBytes(StandardCharsets.UTF_8))) {
+            return null;
+        }
+        var parts = payload.split("\\.");
+        if (parts.length != 3) {
+            return null;
+        }
+        try {
+            var issuedAt = Long.parseLong(parts[1]);
+            var expiresAt = Long.parseLong(parts[2]);
+            if (issuedAt <= revokedThrough || expiresAt <= System.currentTimeMillis() || revoked.containsKey(token)) {
+                return null;
+            }
+            return new String(DECODER.decode(parts[0]), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Remembers a logged-out token until it would have expired anyway.
+     */
+    public void revoke(String token) {
+        var parts = token.split("\\.");
+        var expiresAt = System.currentTimeMillis() + ttlMillis;
+        if (parts.length == 4) {
+            try {
+                expiresAt = Long.parseLong(parts[2]);
+            } catch (NumberFormatException ignored) {
+                // keep the conservative expiry
+            }
+        }
+        revoked.put(token, expiresAt);
+    }
+
+    /**
+     * Invalidates every token issued so far, for when the users behind them are wiped.
+     */
+    public synchronized void revokeAll() {
+        // tokens issued since the last clear may be stamped a millisecond past it
+        revokeIssuedThrough(Math.max(System.currentTimeMillis(), revokedThrough + 1));
+    }
+
+    /**
+     * Revokes every token issued at or before cutoff, such as when another server's
+     * revokeAll is applied here so a clear on any node reaches tokens checked here.
+     */
+    public synchronized void revokeIssuedThrough(long cutoff) {
+        if (cutoff > revokedThrough) {
+            revokedThrough = cutoff;
+            revoked.clear();
+        }
+    }
+
+    /**
+     * @return the issue time revokeAll last revoked through, or -1 if it never has run
+     */
+    public long revokedThrough() {
+        return revokedThrough;
+    }
+
+    private String sign(String payload) {
+        try {
+            var mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return ENCODER.encodeToString(mac.doFinal(payload.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("HMAC unavailable", ex);
+        }
+    }
+
+    private void sweepRevoked() {
+        var now = System.currentTimeMillis();
+        revoked.values().removeIf(expiresAt -> expiresAt <= now);
+    }
+
+    /**
+     * Stops sweeping expired revocations. Tokens can still be issued and verified.
+     */
+    @Override
+    public void close() {
+        sweeper.cancel(false);
+    }
+}
@@ -0,0 +1,159 @@
+package dataaccess;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+public class ConnectionPoolTests {
+    private static final String URL = "jdbc:stub:pool";
+
+    @BeforeAll
+    public static void registerDriver() throws SQLException {
+        DriverManager.registerDriver(new StubDriver());
+    }
+
+    private static ConnectionPool pool(int maxSize, long acquireTimeoutMillis) {
+        return new ConnectionPool(URL, "user", "password", "chess", maxSize, acquireTimeoutMillis, 60_000, 60_000);
+    }
+
+    @Test
+    public void acquireTimesOutWhenExhausted() throws Exception {
+        var pool = pool(2, 50);
+        var first = pool.acquire();
+        pool.acquire();
+        Assertions.assertThrows(DataAccessException.class, pool::acquire);
+        Assertions.assertEquals(1, pool.metrics().timeouts());
+        Assertions.assertEquals(2, pool.metrics().active());
+        first.close();
+        Assertions.assertNotNull(pool.acquire());
+        Assertions.assertEquals(2, pool.metrics().created());
+    }
+
+    @Test
+    public void returnedConnectionIsReused() throws Exception {
+        var pool = pool(2, 50);
+        pool.acquire().close();
+        pool.acquire().close();
+        Assertions.assertEquals(1, pool.metrics().created());
+        Assertions.assertEquals(1, pool.metrics().idle());
+        Assertions.assertEquals(0, pool.metrics().active());
+    }
+
+    @Test
+    public void returnRollsBackOpenTransaction() throws Exception {
+        var pool = pool(1, 50);
+        var conn = pool.acquire();
+        conn.setAutoCommit(false);
+        conn.close();
+        var stub = StubDriver.opened.getLast();
+        Assertions.assertEquals(1, stub.rollbacks);
+        Assertions.assertTrue(stub.autoCommit);
+        Assertions.assertTrue(pool.acquire().getAutoCommit());
+    }
+
+    @Test
+    public void closedWrapperCannotBeUsed() throws Exception {
+        var pool = pool(1, 50);
+        var conn = pool.acquire();
+        conn.close();
+        conn.close();
+        Assertions.assertTrue(conn.isClosed());
+        Assertions.assertThrows(SQLException.class, () -> conn.prepareStatement("SELECT 1"));
+        // closing twice must not hand back a second permit
+        pool.acquire();
+        Assertions.assertThrows(DataAccessException.class, pool::acquire);
+    }
+
+    @Test
+    public void brokenConnectionIsNotPooled() throws Exception {
+        var pool = pool(1, 50);
+        var conn = pool.acquire();
+        StubDriver.opened.getLast().closed = true;
+        conn.close();
+        Assertions.assertEquals(0, pool.metrics().idle());
+        pool.acquire();
+        Assertions.assertEquals(2, pool.metrics().created());
+    }
+
+    /**
+     * Hands out connections that only remember what was done to them.
+     */
+    private static class StubDriver implements Driver {
+        private static final ArrayList<StubConnection> opened = new ArrayList<>();
+
+        @Override
+        public Connection connect(String url, Properties info) {
+            if (!acceptsURL(url)) {
+                return null;
+            }
+            var stub = new StubConnection();
+            opened.add(stub);
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> switch (method.getName()) {
+                        case "getAutoCommit" -> stub.autoCommit;
+                        case "setAutoCommit" -> {
+                            stub.autoCommit = (Boolean) args[0];
+                            yield null;
+                        }
+                        case "rollback" -> {
+                            stub.rollbacks++;
+                            yield null;
+                        }
+                        case "isClosed" -> stub.closed;
+                        case "isValid" -> !stub.closed;
+                        case "close" -> {
+                            stub.closed = true;
+                            yield null;
+                        }
+                        case "setCatalog" -> null;
+                        default -> throw new SQLException("not supported by the stub: " + method.getName());
+                    });
+        }
+
+        @Override
+        public boolean acceptsURL(String url) {
+            return url.startsWith(URL);
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        @Override
+        public Logger getParentLogger() {
+            return Logger.getGlobal();
+        }
+    }
+
+    private static class StubConnection {
+        private boolean autoCommit = true;
+        private boolean closed;
+        private int rollbacks;
+    }
+}
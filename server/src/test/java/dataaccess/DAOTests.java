@@ -1,10 +1,31 @@
 package dataaccess;
 
 import chess.ChessGame;
+import chess.ChessMove;
+import chess.ChessPosition;
+import com.google.gson.Gson;
 import model.AuthData;
+import model.GameSummary;
 import model.UserData;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.fail;
 
 public class DAOTests {
@@ -108,6 +129,15 @@ public class DAOTests {
         Assertions.assertNull(dataAccess.findAuth("token"));
     }
 
+    @Test
+    public void findAuthExpired() throws Exception {
+        var dataAccess = new MySqlDataAccess(Duration.ofMillis(50));
+        dataAccess.clearData();
+        dataAccess.addAuth(new AuthData("token", "coleman"));
+        Thread.sleep(100);
+        Assertions.assertNull(dataAccess.findAuth("token"));
+    }
+
     @Test
     public void deleteAuthSuccess() throws Exception {
         var dataAccess = new MySqlDataAccess();
@@ -186,13 +216,26 @@ public class DAOTests {
         Assertions.assertNull(game);
     }
 
+    @Test
+    public void createGamesSuccess() throws Exception {
+        var dataAccess = new MySqlDataAccess();
+        dataAccess.clearData();
+        var names = new ArrayList<String>();
+        for (int i = 0; i < 600; i++) {
+            names.add("board " + i);
+        }
+        var gameIDs = dataAccess.createGames(names);
+        Assertions.assertEquals(600, gameIDs.size());
+        Assertions.assertEquals("board 599", dataAccess.getGame(gameIDs.getLast()).gameName());
+        Assertions.assertEquals(0, dataAccess.getGame(gameIDs.getFirst()).game().getMoveCount());
+    }
+
     @Test
     public void addPlayerToGameSuccess() throws Exception {
         var dataAccess = new MySqlDataAccess();
         dataAccess.clearData();
         int gameID = dataAccess.createGame("first game");
-        dataAccess.addAuth(new AuthData("token", "username"));
-        dataAccess.addPlayerToGame("token", ChessGame.TeamColor.BLACK, gameID);
+        Assertions.assertTrue(dataAccess.addPlayerToGame("username", ChessGame.TeamColor.BLACK, gameID));
         var game = dataAccess.getGame(gameID);
         Assertions.assertEquals("username", game.blackUsername());
     }
@@ -202,9 +245,353 @@ public class DAOTests {
         var dataAccess = new MySqlDataAccess();
         dataAccess.clearData();
         int gameID = dataAccess.createGame("first game");
-        dataAccess.addPlayerToGame("nonexistent token", ChessGame.TeamColor.BLACK, gameID);
+        Assertions.assertFalse(dataAccess.addPlayerToGame("username", ChessGame.TeamColor.BLACK, gameID + 1));
         var game = dataAccess.getGame(gameID);
         Assertions.assertNull(game.blackUsername());
+        Assertions.assertNull(dataAccess.getGame(gameID + 1));
+    }
+
+    @Test
+    public void addPlayerToTakenSeat() throws Exception {
+        var dataAccess = new MySqlDataAccess();
+        dataAccess.clearData();
+        int gameID = dataAccess.createGame("first game");
+        Assertions.assertTrue(dataAccess.addPlayerToGame("first", ChessGame.TeamColor.WHITE, gameID));
+        Assertions.assertFalse(dataAccess.addPlayerToGame("second", ChessGame.TeamColor.WHITE, gameID));
+        Assertions.assertEquals("first", dataAccess.getGame(gameID).whiteUsername());
+    }
+
+    @Test
+    public void recordMoveSuccess() throws Exception {
+        var dataAccess = new MySqlDataAccess();
+        dataAccess.clearData();
+        int gameID = dataAccess.createGame("first game");
+        int revision = dataAccess.getGameRevision(gameID);
+        var gameData = dataAccess.getGame(gameID);
+        var move = new ChessMove(new ChessPosition(2, 5), new ChessPosition(4, 5), null);
+        gameData.game().makeMove(move);
+        Assertions.assertTrue(dataAccess.recordMove(gameData, move, revision));
+        var game = dataAccess.getGame(gameID).game();
+        Assertions.assertEquals(1, game.getMoveCount());
+        Assertions.assertEquals(ChessGame.TeamColor.BLACK, game.getTeamTurn());
+        Assertions.assertNotNull(game.getBoard().getPiece(new ChessPosition(4, 5)));
+    }
+
+    @Test
+    public void recordMoveFailure() throws Exception {
+        var dataAccess = new MySqlDataAccess();
+        dataAccess.clearData();
+        int gameID = dataAccess.createGame("first game");
+        int revision = dataAccess.getGameRevision(gameID);
+        var gameData = dataAccess.getGame(gameID);
+        var move = new ChessMove(new ChessPosition(2, 5), new ChessPosition(4, 5), null);
+        gameData.game().makeMove(move);
+        Assertions.assertTrue(dataAccess.recordMove(gameData, move, revision));
+        Assertions.assertFalse(dataAccess.recordMove(gameData, move, revision));
+        Assertions.assertEquals(1, dataAccess.getGame(gameID).game().getMoveCount());
+    }
+
+    @Test
+    public void updateGameSuccess() throws Exception {
+        var dataAccess = new MySqlDataAccess();
+        dataAccess.clearData();
+        int gameID = dataAccess.createGame("first game");
+        int revision = dataAccess.getGameRevision(gameID);
+        var gameData = dataAccess.getGame(gameID);
+        gameData.game().setGameOver(true);
+        Assertions.assertTrue(dataAccess.updateGame(gameData, revision));
+        Assertions.assertTrue(dataAccess.getGame(gameID).game().gameOver());
+        Assertions.assertEquals(revision + 1, dataAccess.getGameRevision(gameID));
+    }
+
+    @Test
+    public void updateGameConflict() throws Exception {
+        var dataAccess = new MySqlDataAccess();
+        dataAccess.clearData();
+        int gameID = dataAccess.createGame("first game");
+        int revision = dataAccess.getGameRevision(gameID);
+        var gameData = dataAccess.getGame(gameID);
+        dataAccess.addPlayerToGame("username", ChessGame.TeamColor.WHITE, gameID);
+        gameData.game().setGameOver(true);
+        Assertions.assertFalse(dataAccess.updateGame(gameData, revision));
+        Assertions.assertFalse(dataAccess.getGame(gameID).game().gameOver());
+    }
+
+    @Test
+    public void fileDataAccessSurvivesRestart(@TempDir Path dataDir) throws Exception {
+        int gameID;
+        try (var dataAccess = new FileDataAccess(dataDir)) {
+            dataAccess.saveUser(new UserData("un", "pw", "em"));
+            dataAccess.addAuth(new AuthData("token", "un"));
+            gameID = dataAccess.createGame("first game");
+            dataAccess.addPlayerToGame("un", ChessGame.TeamColor.WHITE, gameID);
+            var gameData = dataAccess.getGame(gameID);
+            var move = new ChessMove(new ChessPosition(2, 5), new ChessPosition(4, 5), null);
+            gameData.game().makeMove(move);
+            dataAccess.recordMove(gameData, move, dataAccess.getGameRevision(gameID));
+        }
+        try (var dataAccess = new FileDataAccess(dataDir)) {
+            Assertions.assertNotNull(dataAccess.getUser("un"));
+            Assertions.assertEquals("un", dataAccess.findAuth("token"));
+            var gameData = dataAccess.getGame(gameID);
+            Assertions.assertEquals("un", gameData.whiteUsername());
+            Assertions.assertEquals(1, gameData.game().getMoveCount());
+            Assertions.assertEquals(2, dataAccess.getGameRevision(gameID));
+            Assertions.assertTrue(dataAccess.createGame("second game") > gameID);
+        }
+    }
+
+    @Test
+    public void fileDataAccessSnapshot(@TempDir Path dataDir) throws Exception {
+        try (var dataAccess = new FileDataAccess(dataDir)) {
+            dataAccess.createGames(List.of("one", "two", "three"));
+            dataAccess.snapshot();
+            dataAccess.removeFromGame(2, ChessGame.TeamColor.BLACK);
+        }
+        try (var dataAccess = new FileDataAccess(dataDir)) {
+            Assertions.assertEquals(3, dataAccess.listGames().size());
+            Assertions.assertEquals(1, dataAccess.getGameRevision(2));
+        }
+    }
+
+    @Test
+    public void archiveFinishedGamesSuccess() throws Exception {
+        var dataAccess = new MySqlDataAccess();
+        dataAccess.clearData();
+        int gameID = dataAccess.createGame("first game");
+        dataAccess.createGame("second game");
+        dataAccess.addPlayerToGame("username", ChessGame.TeamColor.BLACK, gameID);
+        var gameData = dataAccess.getGame(gameID);
+        gameData.game().setGameOver(true);
+        dataAccess.updateGame(gameData);
+        Assertions.assertEquals(1, dataAccess.archiveFinishedGames(10));
+        Assertions.assertEquals(1, dataAccess.listGames().size());
+        Assertions.assertTrue(dataAccess.gameExists(gameID));
+        Assertions.assertTrue(dataAccess.getGame(gameID).game().gameOver());
+        Assertions.assertEquals(1, dataAccess.listArchivedGames("username", 0, 10).size());
+        Assertions.assertEquals(0, dataAccess.listArchivedGames("other", 0, 10).size());
+    }
+
+    @Test
+    public void legacyFinishedGameIsMigrated() throws Exception {
+        var dataAccess = new MySqlDataAccess();
+        dataAccess.clearData();
+        var game = new ChessGame();
+        // fool's mate
+        game.makeMove(new ChessMove(new ChessPosition(2, 6), new ChessPosition(3, 6), null));
+        game.makeMove(new ChessMove(new ChessPosition(7, 5), new ChessPosition(5, 5), null));
+        game.makeMove(new ChessMove(new ChessPosition(2, 7), new ChessPosition(4, 7), null));
+        game.makeMove(new ChessMove(new ChessPosition(8, 4), new ChessPosition(4, 8), null));
+        Assertions.assertTrue(game.gameOver());
+        int gameID;
+        try (var conn = DatabaseManager.getConnection();
+             var ps = conn.prepareStatement("INSERT INTO game (gameName, gameJson) VALUES (?, ?)", Statement.RETURN_GENERATED_KEYS)) {
+            ps.setString(1, "legacy game");
+            ps.setString(2, new Gson().toJson(game));
+            ps.executeUpdate();
+            try (var keys = ps.getGeneratedKeys()) {
+                keys.next();
+                gameID = keys.getInt(1);
+            }
+        }
+
+        // starting up again runs the migration
+        dataAccess = new MySqlDataAccess();
+        var finished = dataAccess.listGameSummaries(0, 10, null, GameSummary.Status.FINISHED);
+        Assertions.assertEquals(List.of(new GameSummary(gameID, "legacy game", null, null, GameSummary.Status.FINISHED, 4)), finished);
+        Assertions.assertTrue(dataAccess.getGame(gameID).game().gameOver());
+        Assertions.assertEquals(1, dataAccess.archiveFinishedGames(10));
+        Assertions.assertEquals(1, dataAccess.listArchivedGames(null, 0, 10).size());
+    }
+
+    @Test
+    public void fileDataAccessKeepsArchive(@TempDir Path dataDir) throws Exception {
+        try (var dataAccess = new FileDataAccess(dataDir)) {
+            var ids = dataAccess.createGames(List.of("one", "two"));
+            for (var gameID : ids) {
+                var gameData = dataAccess.getGame(gameID);
+                gameData.game().setGameOver(true);
+                dataAccess.updateGame(gameData);
+            }
+            dataAccess.archiveFinishedGames(1);
+            dataAccess.snapshot();
+            dataAccess.archiveFinishedGames(1);
+        }
+        try (var dataAccess = new FileDataAccess(dataDir)) {
+            Assertions.assertEquals(0, dataAccess.listGames().size());
+            Assertions.assertEquals(2, dataAccess.listArchivedGames(null, 0, 10).size());
+            Assertions.assertTrue(dataAccess.getGame(2).game().gameOver());
+        }
+    }
+
+    @Test
+    public void latencyInjectingDataAccess() throws Exception {
+        try (var dataAccess = new LatencyInjectingDataAccess(new MemoryDataAccess(),
+                LatencyInjectingDataAccess.parse("*=20ms, getGame=0us/0us/1"))) {
+            var start = System.nanoTime();
+            var gameID = dataAccess.createGame("slow game");
+            Assertions.assertTrue(System.nanoTime() - start >= Duration.ofMillis(20).toNanos());
+            Assertions.assertThrows(DataAccessException.class, () -> dataAccess.getGame(gameID));
+        }
+        Assertions.assertThrows(IllegalArgumentException.class, () -> LatencyInjectingDataAccess.parse("getGame=5"));
+    }
+
+    @Test
+    public void fileDataAccessTornLog(@TempDir Path dataDir) throws Exception {
+        try (var dataAccess = new FileDataAccess(dataDir)) {
+            dataAccess.createGame("first game");
+            dataAccess.createGame("second game");
+        }
+        try (var files = Files.list(dataDir)) {
+            var log = files.filter(file -> file.getFileName().toString().endsWith(".log")).findFirst().orElseThrow();
+            // as if the server died halfway through writing the second record
+            try (var channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+                channel.truncate(channel.size() - 3);
+            }
+        }
+        try (var dataAccess = new FileDataAccess(dataDir)) {
+            Assertions.assertEquals(1, dataAccess.listGames().size());
+            dataAccess.createGame("third game");
+        }
+        try (var dataAccess = new FileDataAccess(dataDir)) {
+            Assertions.assertEquals(2, dataAccess.listGames().size());
+        }
+    }
+
+    @Test
+    public void fileDataAccessStopsAfterLogFailure(@TempDir Path dataDir) throws Exception {
+        var channels = new ArrayList<FailingChannel>();
+        WriteAheadLog.Opener opener = file -> {
+            var channel = new FailingChannel(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+            channels.add(channel);
+            return channel;
+        };
+        try (var dataAccess = new FileDataAccess(dataDir, DataAccess.DEFAULT_AUTH_TTL, MemoryDataAccess.DEFAULT_HIBERNATE_AFTER, opener)) {
+            dataAccess.createGame("first game");
+            channels.get(0).failing = true;
+            Assertions.assertThrows(DataAccessException.class, () -> dataAccess.createGame("second game"));
+            channels.get(0).failing = false;
+            // the disk is back, but the lost record must not be reported durable by a later write
+            Assertions.assertThrows(DataAccessException.class, () -> dataAccess.createGame("third game"));
+            Assertions.assertThrows(DataAccessException.class, dataAccess::listGames);
+            Assertions.assertThrows(DataAccessException.class, dataAccess::snapshot);
+        }
+        try (var dataAccess = new FileDataAccess(dataDir)) {
+            Assertions.assertEquals(1, dataAccess.listGames().size());
+            dataAccess.createGame("fourth game");
+        }
+        try (var dataAccess = new FileDataAccess(dataDir)) {
+            Assertions.assertEquals(2, dataAccess.listGames().size());
+        }
+    }
+
+    /**
+     * Passes everything through to a real channel, except that while failing is set a
+     * write gets half its bytes out and then throws.
+     */
+    private static class FailingChannel extends FileChannel {
+        private final FileChannel channel;
+        private volatile boolean failing;
+
+        private FailingChannel(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (failing) {
+                var half = src.duplicate();
+                half.limit(half.position() + half.remaining() / 2);
+                channel.write(half);
+                throw new IOException("disk full");
+            }
+            return channel.write(src);
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            if (failing) {
+                throw new IOException("disk full");
+            }
+            channel.force(metaData);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return channel.read(dsts, offset, length);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            channel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return channel.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return channel.read(dst, position);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return channel.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return channel.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return channel.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            channel.close();
+        }
     }
 
     @Test
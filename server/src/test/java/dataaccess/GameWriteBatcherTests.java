@@ -0,0 +1,167 @@
+package dataaccess;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class GameWriteBatcherTests {
+    private static final int POISONED_GAME = 13;
+
+    @Test
+    public void movesShareOneCommit() throws Exception {
+        var database = new StubDatabase(1, 2, 3);
+        var batcher = new GameWriteBatcher(64, Duration.ofMillis(200), database::open);
+        var results = new ArrayList<CompletableFuture<Boolean>>();
+        for (int gameID = 1; gameID <= 3; gameID++) {
+            results.add(batcher.submit(gameID, 1, 100 + gameID, false, null, 0));
+        }
+        for (var result : results) {
+            Assertions.assertTrue(result.get(5, TimeUnit.SECONDS));
+        }
+        Assertions.assertEquals(1, database.commits.get());
+        Assertions.assertEquals(List.of(1, 1, 1), List.of(database.revision(1), database.revision(2), database.revision(3)));
+        Assertions.assertEquals(3, database.moves.size());
+    }
+
+    @Test
+    public void staleRevisionIsNotApplied() throws Exception {
+        var database = new StubDatabase(1);
+        var batcher = new GameWriteBatcher(64, Duration.ZERO, database::open);
+        Assertions.assertTrue(batcher.submit(1, 1, 100, false, null, 0).get(5, TimeUnit.SECONDS));
+        Assertions.assertFalse(batcher.submit(1, 2, 101, false, null, 0).get(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(batcher.submit(1, 2, 102, false, new byte[]{1}, 1).get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(List.of(100, 102), database.moves);
+    }
+
+    @Test
+    public void failedBatchIsSplit() throws Exception {
+        var database = new StubDatabase(1, 2, POISONED_GAME);
+        var batcher = new GameWriteBatcher(64, Duration.ofMillis(200), database::open);
+        var first = batcher.submit(1, 1, 101, false, null, 0);
+        var poisoned = batcher.submit(POISONED_GAME, 1, 113, false, null, 0);
+        var second = batcher.submit(2, 1, 102, false, null, 0);
+
+        Assertions.assertTrue(first.get(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(second.get(5, TimeUnit.SECONDS));
+        var ex = Assertions.assertThrows(ExecutionException.class, () -> poisoned.get(5, TimeUnit.SECONDS));
+        Assertions.assertInstanceOf(BatchUpdateException.class, ex.getCause());
+        // the whole batch was rolled back, then each move retried on its own
+        Assertions.assertEquals(2, database.commits.get());
+        Assertions.assertEquals(0, database.revision(POISONED_GAME));
+        Assertions.assertEquals(List.of(101, 102), database.moves);
+    }
+
+    @Test
+    public void deadWriterIsReplaced() throws Exception {
+        var database = new StubDatabase(1);
+        var failures = new AtomicInteger(1);
+        GameWriteBatcher.ConnectionSource source = () -> {
+            if (failures.getAndDecrement() > 0) {
+                throw new StackOverflowError("writer blew up");
+            }
+            return database.open();
+        };
+        var batcher = new GameWriteBatcher(64, Duration.ZERO, source);
+        var lost = batcher.submit(1, 1, 100, false, null, 0);
+        var ex = Assertions.assertThrows(ExecutionException.class, () -> lost.get(5, TimeUnit.SECONDS));
+        Assertions.assertInstanceOf(StackOverflowError.class, ex.getCause());
+
+        Assertions.assertTrue(batcher.submit(1, 1, 100, false, null, 0).get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, database.revision(1));
+    }
+
+    /**
+     * The game table's revisions and the move log, behind just enough of JDBC for the
+     * batcher. Changes only land on commit, and an executeBatch holding the poisoned
+     * game throws the way a failing row would.
+     */
+    private static class StubDatabase {
+        private final Map<Integer, Integer> revisions = new ConcurrentHashMap<>();
+        private final List<Integer> moves = new ArrayList<>();
+        private final AtomicInteger commits = new AtomicInteger();
+
+        private StubDatabase(int... gameIDs) {
+            for (var gameID : gameIDs) {
+                revisions.put(gameID, 0);
+            }
+        }
+
+        private int revision(int gameID) {
+            return revisions.get(gameID);
+        }
+
+        private Connection open() {
+            var stagedRevisions = new HashMap<Integer, Integer>();
+            var stagedMoves = new ArrayList<Integer>();
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> switch (method.getName()) {
+                        case "prepareStatement" -> statement((String) args[0], stagedRevisions, stagedMoves);
+                        case "commit" -> {
+                            revisions.putAll(stagedRevisions);
+                            synchronized (moves) {
+                                moves.addAll(stagedMoves);
+                            }
+                            commits.incrementAndGet();
+                            yield null;
+                        }
+                        case "isClosed" -> false;
+                        default -> null;
+                    });
+        }
+
+        private PreparedStatement statement(String sql, Map<Integer, Integer> stagedRevisions, List<Integer> stagedMoves) {
+            var params = new HashMap<Integer, Object>();
+            var batch = new ArrayList<Map<Integer, Object>>();
+            // where the game ID and expected revision sit in each of the batcher's statements
+            var snapshot = sql.startsWith("UPDATE game SET gameState");
+            var gameIndex = snapshot ? 5 : sql.startsWith("UPDATE") ? 3 : 1;
+            return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{PreparedStatement.class},
+                    (proxy, method, args) -> switch (method.getName()) {
+                        case "setInt", "setBoolean", "setBytes" -> {
+                            params.put((Integer) args[0], args[1]);
+                            yield null;
+                        }
+                        case "addBatch" -> {
+                            batch.add(new HashMap<>(params));
+                            yield null;
+                        }
+                        case "executeBatch" -> {
+                            var counts = new int[batch.size()];
+                            for (int i = 0; i < batch.size(); i++) {
+                                var row = batch.get(i);
+                                var gameID = (Integer) row.get(gameIndex);
+                                if (gameID == POISONED_GAME) {
+                                    throw new BatchUpdateException("poisoned row", new int[0]);
+                                }
+                                if (sql.startsWith("INSERT")) {
+                                    stagedMoves.add((Integer) row.get(3));
+                                    counts[i] = 1;
+                                    continue;
+                                }
+                                var current = stagedRevisions.getOrDefault(gameID, revisions.get(gameID));
+                                if (current.equals(row.get(gameIndex + 1))) {
+                                    stagedRevisions.put(gameID, current + 1);
+                                    counts[i] = 1;
+                                }
+                            }
+                            yield counts;
+                        }
+                        default -> null;
+                    });
+        }
+    }
+}
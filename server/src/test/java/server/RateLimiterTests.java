@@ -0,0 +1,86 @@
+package server;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+public class RateLimiterTests {
+
+    @Test
+    public void burstThenRefused() {
+        var limiter = new RateLimiter(1, 3, 100);
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertTrue(limiter.tryAcquire("cow"), "permit " + i);
+        }
+        Assertions.assertFalse(limiter.tryAcquire("cow"));
+        // another key has a bucket of its own
+        Assertions.assertTrue(limiter.tryAcquire("rat"));
+    }
+
+    @Test
+    public void permitsRefillOverTime() throws InterruptedException {
+        var limiter = new RateLimiter(50, 1, 100);
+        Assertions.assertTrue(limiter.tryAcquire("cow"));
+        Assertions.assertFalse(limiter.tryAcquire("cow"));
+        // one permit every 20 ms
+        Thread.sleep(60);
+        Assertions.assertTrue(limiter.tryAcquire("cow"));
+        Assertions.assertFalse(limiter.tryAcquire("cow"));
+    }
+
+    @Test
+    public void refillStopsAtBurst() throws InterruptedException {
+        var limiter = new RateLimiter(1000, 2, 100);
+        Assertions.assertTrue(limiter.tryAcquire("cow"));
+        Thread.sleep(50);
+        Assertions.assertTrue(limiter.tryAcquire("cow"));
+        Assertions.assertTrue(limiter.tryAcquire("cow"));
+        Assertions.assertFalse(limiter.tryAcquire("cow"));
+    }
+
+    @Test
+    public void leastRecentKeyIsEvicted() {
+        // one key per shard; 0 and 16 land in the same shard
+        var limiter = new RateLimiter(0.001, 1, 16);
+        Assertions.assertTrue(limiter.tryAcquire(0));
+        Assertions.assertFalse(limiter.tryAcquire(0));
+        Assertions.assertTrue(limiter.tryAcquire(16));
+        // 0 was pushed out, so it starts over with a full bucket
+        Assertions.assertTrue(limiter.tryAcquire(0));
+        Assertions.assertFalse(limiter.tryAcquire(0));
+    }
+
+    @Test
+    public void forgottenKeyStartsOver() {
+        var limiter = new RateLimiter(0.001, 1, 100);
+        Assertions.assertTrue(limiter.tryAcquire("cow"));
+        Assertions.assertFalse(limiter.tryAcquire("cow"));
+        limiter.forget("cow");
+        Assertions.assertTrue(limiter.tryAcquire("cow"));
+    }
+
+    @Test
+    public void zeroRateLetsEverythingThrough() {
+        System.setProperty("chess.testRateLimit", "0");
+        try {
+            var limiter = RateLimiter.fromProperty("chess.testRateLimit", "1/1", 100);
+            for (int i = 0; i < 1000; i++) {
+                Assertions.assertTrue(limiter.tryAcquire("cow"));
+            }
+        } finally {
+            System.clearProperty("chess.testRateLimit");
+        }
+    }
+
+    @Test
+    public void forwardedForOnlyTrustedFromProxies() {
+        var proxies = Set.of("10.0.0.1", "10.0.0.2");
+        Assertions.assertEquals("203.0.113.9", Server.clientAddress("10.0.0.1", "203.0.113.9", proxies));
+        // the client may write its own header; only hops the proxies added count
+        Assertions.assertEquals("203.0.113.9", Server.clientAddress("10.0.0.1", "1.2.3.4, 203.0.113.9, 10.0.0.2", proxies));
+        Assertions.assertEquals("198.51.100.7", Server.clientAddress("198.51.100.7", "203.0.113.9", proxies));
+        Assertions.assertEquals("10.0.0.1", Server.clientAddress("10.0.0.1", null, proxies));
+        Assertions.assertEquals("10.0.0.2", Server.clientAddress("10.0.0.1", "10.0.0.2", proxies));
+    }
+}
@@ -0,0 +1,135 @@
+package server.cluster;
+
+import dataaccess.MemoryDataAccess;
+import model.AuthorizationRequest;
+import model.LoginRequest;
+import model.RegisterRequest;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import server.Server;
+import server.ServerFacade;
+import service.ServiceException;
+import service.SignedTokens;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+public class EventBusTests {
+
+    @Test
+    public void localBusSkipsOrigin() {
+        var bus = new LocalEventBus();
+        var seenByA = new ArrayList<GameEvent>();
+        var seenByB = new ArrayList<GameEvent>();
+        bus.subscribe("a", seenByA::add);
+        var stopB = bus.subscribe("b", seenByB::add);
+        bus.publish(event("a", 1));
+        Assertions.assertEquals(0, seenByA.size());
+        Assertions.assertEquals(1, seenByB.size());
+        stopB.run();
+        bus.publish(event("c", 2));
+        Assertions.assertEquals(1, seenByA.size());
+        Assertions.assertEquals(1, seenByB.size());
+    }
+
+    @Test
+    public void tcpBusDeliversInOrder() throws Exception {
+        var portA = freePort();
+        var portB = freePort();
+        try (var busA = new TcpEventBus(portA, List.of(loopback(portB)));
+             var busB = new TcpEventBus(portB, List.of(loopback(portA)))) {
+            var receivedByA = new LinkedBlockingQueue<GameEvent>();
+            var receivedByB = new LinkedBlockingQueue<GameEvent>();
+            busA.subscribe("a", receivedByA::add);
+            busB.subscribe("b", receivedByB::add);
+            for (int i = 0; i < 100; i++) {
+                busA.publish(event("a", i));
+            }
+            for (int i = 0; i < 100; i++) {
+                var event = receivedByB.poll(5, TimeUnit.SECONDS);
+                Assertions.assertNotNull(event, "event " + i + " never arrived");
+                Assertions.assertEquals(i, event.gameID());
+            }
+            busB.publish(event("b", 7));
+            Assertions.assertEquals(7, receivedByA.poll(5, TimeUnit.SECONDS).gameID());
+            Assertions.assertTrue(receivedByA.isEmpty());
+            Assertions.assertEquals(0, busA.dropped());
+        }
+    }
+
+    @Test
+    public void logoutReachesOtherNode() throws Exception {
+        System.setProperty("chess.signedTokens", "true");
+        System.setProperty("chess.tokenKey", Base64.getEncoder().encodeToString(SignedTokens.randomKey()));
+        Server nodeA = null;
+        Server nodeB = null;
+        try {
+            var store = new MemoryDataAccess();
+            var busPortA = freePort();
+            var busPortB = freePort();
+            nodeA = new Server(store, new TcpEventBus(busPortA, List.of(loopback(busPortB))));
+            nodeB = new Server(store, new TcpEventBus(busPortB, List.of(loopback(busPortA))));
+            var facadeA = new ServerFacade(nodeA.run(0));
+            var facadeB = new ServerFacade(nodeB.run(0));
+
+            var token = facadeA.register(new RegisterRequest("relay", "password", "email")).authToken();
+            var auth = new AuthorizationRequest(token);
+            Assertions.assertNotNull(facadeB.list(auth));
+            facadeA.logout(auth);
+            awaitTrue(() -> rejected(facadeB, auth), "node B still accepts the logged out token");
+
+            var second = new AuthorizationRequest(facadeB.login(new LoginRequest("relay", "password")).authToken());
+            facadeB.clear();
+            awaitTrue(() -> rejected(facadeA, second), "node A still accepts a token from before the clear");
+        } finally {
+            System.clearProperty("chess.signedTokens");
+            System.clearProperty("chess.tokenKey");
+            if (nodeA != null) {
+                nodeA.stop();
+            }
+            if (nodeB != null) {
+                nodeB.stop();
+            }
+        }
+    }
+
+    private static boolean rejected(ServerFacade facade, AuthorizationRequest auth) {
+        try {
+            facade.list(auth);
+            return false;
+        } catch (ServiceException ex) {
+            return true;
+        }
+    }
+
+    private static void awaitTrue(BooleanSupplier condition, String message) throws InterruptedException {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                Assertions.fail(message);
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    private static GameEvent event(String origin, int gameID) {
+        return new GameEvent(GameEvent.Type.BROADCAST, origin, null, gameID, null, "message " + gameID);
+    }
+
+    private static InetSocketAddress loopback(int port) {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+    }
+
+    private static int freePort() throws Exception {
+        try (var socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
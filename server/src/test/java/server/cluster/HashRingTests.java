@@ -0,0 +1,68 @@
+package server.cluster;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+
+public class HashRingTests {
+    private static final int GAMES = 100_000;
+
+    @Test
+    public void gamesSpreadEvenly() {
+        var ring = new HashRing(List.of("a", "b", "c", "d"), HashRing.DEFAULT_VIRTUAL_NODES);
+        var counts = new HashMap<String, Integer>();
+        for (int gameID = 1; gameID <= GAMES; gameID++) {
+            counts.merge(ring.owner(gameID), 1, Integer::sum);
+        }
+        Assertions.assertEquals(4, counts.size());
+        for (var count : counts.values()) {
+            // a fair share is 25,000; allow a fifth either way
+            Assertions.assertTrue(count > GAMES / 4 * 0.8 && count < GAMES / 4 * 1.2, counts.toString());
+        }
+    }
+
+    @Test
+    public void joiningNodeOnlyTakesGames() {
+        var before = new HashRing(List.of("a", "b", "c", "d"), HashRing.DEFAULT_VIRTUAL_NODES);
+        var after = new HashRing(List.of("a", "b", "c", "d", "e"), HashRing.DEFAULT_VIRTUAL_NODES);
+        var moved = 0;
+        for (int gameID = 1; gameID <= GAMES; gameID++) {
+            var oldOwner = before.owner(gameID);
+            var newOwner = after.owner(gameID);
+            if (!oldOwner.equals(newOwner)) {
+                Assertions.assertEquals("e", newOwner, "game " + gameID + " moved between two old nodes");
+                moved++;
+            }
+        }
+        // about a fifth of the games should move to the new node
+        Assertions.assertTrue(moved > GAMES * 0.15 && moved < GAMES * 0.25, "moved " + moved);
+    }
+
+    @Test
+    public void leavingNodeOnlyGivesUpItsGames() {
+        var before = new HashRing(List.of("a", "b", "c", "d"), HashRing.DEFAULT_VIRTUAL_NODES);
+        var after = new HashRing(List.of("a", "b", "d"), HashRing.DEFAULT_VIRTUAL_NODES);
+        for (int gameID = 1; gameID <= GAMES; gameID++) {
+            var oldOwner = before.owner(gameID);
+            if (!oldOwner.equals("c")) {
+                Assertions.assertEquals(oldOwner, after.owner(gameID));
+            }
+        }
+    }
+
+    @Test
+    public void nodesAgreeWhateverTheOrder() {
+        var one = new HashRing(List.of("a", "b", "c"), HashRing.DEFAULT_VIRTUAL_NODES);
+        var other = new HashRing(List.of("c", "a", "b"), HashRing.DEFAULT_VIRTUAL_NODES);
+        for (int gameID = 1; gameID <= 1000; gameID++) {
+            Assertions.assertEquals(one.owner(gameID), other.owner(gameID));
+        }
+    }
+
+    @Test
+    public void emptyRingHasNoOwner() {
+        Assertions.assertNull(new HashRing(List.of(), HashRing.DEFAULT_VIRTUAL_NODES).owner(1));
+    }
+}
@@ -0,0 +1,69 @@
+package server.metrics;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+
+public class LatencyHistogramTests {
+
+    @Test
+    public void smallValuesGetTheirOwnBucket() {
+        for (long nanos = 0; nanos < 64; nanos++) {
+            Assertions.assertEquals(nanos, LatencyHistogram.upperEdge(LatencyHistogram.bucketFor(nanos)));
+        }
+    }
+
+    @Test
+    public void bucketsMeetEdgeToEdge() {
+        var values = new ArrayList<Long>();
+        for (int magnitude = 5; magnitude <= 40; magnitude++) {
+            var power = 1L << magnitude;
+            values.add(power - 1);
+            values.add(power);
+            values.add(power + 1);
+            values.add(power + power / 3);
+        }
+        for (var nanos : values) {
+            var bucket = LatencyHistogram.bucketFor(nanos);
+            var edge = LatencyHistogram.upperEdge(bucket);
+            Assertions.assertTrue(nanos <= edge, nanos + " is past the edge of its bucket, " + edge);
+            Assertions.assertTrue(nanos > LatencyHistogram.upperEdge(bucket - 1), nanos + " belongs in an earlier bucket");
+            Assertions.assertEquals(bucket, LatencyHistogram.bucketFor(edge));
+            Assertions.assertEquals(bucket + 1, LatencyHistogram.bucketFor(edge + 1));
+            // a bucket is a thirty-second of its power of two wide
+            Assertions.assertTrue(edge - nanos <= nanos / 32, "bucket for " + nanos + " ends at " + edge);
+        }
+    }
+
+    @Test
+    public void outOfRangeValuesAreClamped() {
+        var last = LatencyHistogram.bucketFor(1L << 41);
+        Assertions.assertEquals(last, LatencyHistogram.bucketFor(Long.MAX_VALUE));
+        Assertions.assertEquals(last, LatencyHistogram.bucketFor((1L << 41) - 1));
+        Assertions.assertEquals((1L << 41) - 1, LatencyHistogram.upperEdge(last));
+
+        var histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        Assertions.assertEquals(0, histogram.valueAtQuantile(0.5));
+        Assertions.assertEquals((1L << 41) - 1, histogram.valueAtQuantile(1));
+    }
+
+    @Test
+    public void quantilesReadBackWithinABucket() {
+        var histogram = new LatencyHistogram();
+        Assertions.assertEquals(0, histogram.valueAtQuantile(0.99));
+        for (long millis = 1; millis <= 1000; millis++) {
+            histogram.record(millis * 1_000_000);
+        }
+        Assertions.assertEquals(1000, histogram.count());
+        Assertions.assertEquals(500_500L * 1_000_000, histogram.sumNanos());
+        for (var quantile : new double[]{0, 0.5, 0.9, 0.99, 1}) {
+            var expected = Math.max(1, (long) Math.ceil(quantile * 1000)) * 1_000_000;
+            var actual = histogram.valueAtQuantile(quantile);
+            Assertions.assertTrue(actual >= expected && actual <= expected + expected / 32,
+                    "p" + quantile * 100 + " read " + actual + ", expected about " + expected);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package server.metrics;
+
+import chess.ChessGame;
+import chess.ChessMove;
+import chess.ChessPosition;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import dataaccess.MemoryDataAccess;
+import model.CreateGameRequest;
+import model.JoinGameRequest;
+import model.RegisterRequest;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import server.Server;
+import server.ServerFacade;
+import websocket.commands.UserGameCommand;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.WebSocket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class TraceBufferTests {
+
+    @Test
+    public void ringKeepsTheNewestTraces() {
+        var buffer = new TraceBuffer(3, Duration.ZERO, 1);
+        Assertions.assertTrue(buffer.recent().isEmpty());
+        for (int i = 1; i <= 7; i++) {
+            buffer.finish(buffer.start(), "move " + i, i);
+        }
+        var names = new HashSet<String>();
+        for (var trace : buffer.recent()) {
+            names.add(trace.name());
+        }
+        Assertions.assertEquals(Set.of("move 5", "move 6", "move 7"), names);
+    }
+
+    @Test
+    public void fastTracesAreSampled() {
+        var buffer = new TraceBuffer(8, Duration.ofHours(1), Integer.MAX_VALUE);
+        for (int i = 0; i < 100; i++) {
+            buffer.finish(buffer.start(), "fast", 1);
+        }
+        Assertions.assertTrue(buffer.recent().isEmpty());
+
+        var everything = new TraceBuffer(8, Duration.ofHours(1), 1);
+        everything.finish(everything.start(), "fast", 1);
+        Assertions.assertEquals(1, everything.recent().size());
+    }
+
+    @Test
+    public void moveStagesHaveTheirOwnNames() throws Exception {
+        System.setProperty("chess.traceSlowMillis", "0");
+        System.setProperty("chess.adminToken", "admin");
+        var server = new Server(new MemoryDataAccess());
+        try {
+            var port = server.run(0);
+            var facade = new ServerFacade(port);
+            var authToken = facade.register(new RegisterRequest("player", "password", "email")).authToken();
+            var gameID = facade.create(new CreateGameRequest(authToken, "traced")).gameID();
+            facade.join(new JoinGameRequest(authToken, ChessGame.TeamColor.WHITE, gameID));
+            var http = HttpClient.newHttpClient();
+            var socket = http.newWebSocketBuilder()
+                    .buildAsync(URI.create("ws://localhost:" + port + "/ws"), new WebSocket.Listener() { }).get();
+            var move = new ChessMove(new ChessPosition(2, 5), new ChessPosition(4, 5), null);
+            socket.sendText(new Gson().toJson(new UserGameCommand(UserGameCommand.CommandType.MAKE_MOVE, authToken, gameID, move)), true).get();
+
+            var request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/admin/traces"))
+                    .header("authorization", "admin").build();
+            List<String> stages = List.of();
+            // the trace is kept once the command has finished, just after its broadcasts
+            for (int i = 0; i < 50 && stages.isEmpty(); i++) {
+                Thread.sleep(100);
+                stages = moveStages(http.send(request, HttpResponse.BodyHandlers.ofString()).body());
+            }
+            Assertions.assertEquals(List.of("parse", "auth", "getGame", "checks", "validMoves", "makeMove",
+                    "updateGame", "broadcastBoard", "statusChecks", "broadcastNotify"), stages);
+        } finally {
+            server.stop();
+            System.clearProperty("chess.traceSlowMillis");
+            System.clearProperty("chess.adminToken");
+        }
+    }
+
+    private static List<String> moveStages(String json) {
+        var events = new Gson().fromJson(json, JsonObject.class).getAsJsonArray("traceEvents");
+        var row = -1;
+        var stages = new ArrayList<String>();
+        for (var element : events) {
+            var event = element.getAsJsonObject();
+            if (event.get("name").getAsString().equals("MAKE_MOVE")) {
+                row = event.get("tid").getAsInt();
+            } else if (event.get("tid").getAsInt() == row) {
+                stages.add(event.get("name").getAsString());
+            }
+        }
+        return stages;
+    }
+
+    @Test
+    public void jsonHasAnEventPerTraceAndStage() {
+        var buffer = new TraceBuffer(4, Duration.ZERO, 1);
+        var trace = buffer.start();
+        trace.mark("parse");
+        trace.mark("broadcastBoard");
+        buffer.finish(trace, "MAKE_MOVE", 3);
+        var json = buffer.toJson();
+        Assertions.assertTrue(json.contains("\"name\":\"MAKE_MOVE\""), json);
+        Assertions.assertTrue(json.contains("\"name\":\"parse\""), json);
+        Assertions.assertTrue(json.contains("\"name\":\"broadcastBoard\""), json);
+        Assertions.assertEquals(3, json.split("\"ph\":\"X\"", -1).length - 1, json);
+    }
+}
@@ -0,0 +1,132 @@
+package server.websocket;
+
+import chess.ChessGame;
+import chess.ChessMove;
+import chess.ChessPosition;
+import com.google.gson.Gson;
+import dataaccess.MemoryDataAccess;
+import model.CreateGameRequest;
+import model.JoinGameRequest;
+import model.RegisterRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import server.Server;
+import server.ServerFacade;
+import websocket.commands.UserGameCommand;
+import websocket.messages.ServerMessage;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static websocket.messages.ServerMessage.ServerMessageType.*;
+
+public class MultiplexTests {
+    private static final Gson GSON = new Gson();
+
+    private Server server;
+    private int port;
+    private String playerToken;
+    private String watcherToken;
+    private int firstGame;
+    private int secondGame;
+
+    @BeforeEach
+    public void start() throws Exception {
+        server = new Server(new MemoryDataAccess());
+        port = server.run(0);
+        var facade = new ServerFacade(port);
+        playerToken = facade.register(new RegisterRequest("player", "password", "email")).authToken();
+        watcherToken = facade.register(new RegisterRequest("watcher", "password", "email")).authToken();
+        firstGame = facade.create(new CreateGameRequest(playerToken, "first")).gameID();
+        secondGame = facade.create(new CreateGameRequest(playerToken, "second")).gameID();
+        facade.join(new JoinGameRequest(playerToken, ChessGame.TeamColor.WHITE, firstGame));
+        facade.join(new JoinGameRequest(playerToken, ChessGame.TeamColor.WHITE, secondGame));
+    }
+
+    @AfterEach
+    public void stop() {
+        server.stop();
+    }
+
+    @Test
+    public void twoGamesOneSocket() throws Exception {
+        var playerMessages = new LinkedBlockingQueue<String>();
+        var watcherMessages = new LinkedBlockingQueue<String>();
+        var player = open(playerMessages);
+        var watcher = open(watcherMessages);
+
+        send(player, new UserGameCommand(UserGameCommand.CommandType.CONNECT, playerToken, firstGame));
+        expect(playerMessages, LOAD_GAME, firstGame);
+        send(player, new UserGameCommand(UserGameCommand.CommandType.CONNECT, playerToken, secondGame));
+        expect(playerMessages, LOAD_GAME, secondGame);
+        send(watcher, new UserGameCommand(UserGameCommand.CommandType.SUBSCRIBE, watcherToken, firstGame));
+        expect(watcherMessages, LOAD_GAME, firstGame);
+        send(watcher, new UserGameCommand(UserGameCommand.CommandType.SUBSCRIBE, watcherToken, secondGame));
+        expect(watcherMessages, LOAD_GAME, secondGame);
+
+        // a move in one game reaches the watcher tagged with that game only
+        send(player, new UserGameCommand(UserGameCommand.CommandType.MAKE_MOVE, playerToken, secondGame, kingsPawn()));
+        expect(playerMessages, LOAD_GAME, secondGame);
+        expect(watcherMessages, LOAD_GAME, secondGame);
+        expect(watcherMessages, NOTIFICATION, secondGame);
+
+        send(watcher, new UserGameCommand(UserGameCommand.CommandType.UNSUBSCRIBE, watcherToken, firstGame));
+        Thread.sleep(200);
+        send(player, new UserGameCommand(UserGameCommand.CommandType.MAKE_MOVE, playerToken, firstGame, kingsPawn()));
+        expect(playerMessages, LOAD_GAME, firstGame);
+        Assertions.assertNull(watcherMessages.poll(500, TimeUnit.MILLISECONDS), "unsubscribed game still reached the watcher");
+    }
+
+    @Test
+    public void missingGameIDIsAnError() throws Exception {
+        var messages = new LinkedBlockingQueue<String>();
+        var socket = open(messages);
+        for (var type : new UserGameCommand.CommandType[]{UserGameCommand.CommandType.CONNECT,
+                UserGameCommand.CommandType.SUBSCRIBE, UserGameCommand.CommandType.LEAVE}) {
+            send(socket, new UserGameCommand(type, watcherToken, null));
+            expect(messages, ERROR, null);
+        }
+        socket.sendText("not a command", true).get();
+        expect(messages, ERROR, null);
+
+        // the socket is still usable afterwards
+        send(socket, new UserGameCommand(UserGameCommand.CommandType.SUBSCRIBE, watcherToken, firstGame));
+        expect(messages, LOAD_GAME, firstGame);
+    }
+
+    private static ChessMove kingsPawn() {
+        return new ChessMove(new ChessPosition(2, 5), new ChessPosition(4, 5), null);
+    }
+
+    private WebSocket open(BlockingQueue<String> messages) throws Exception {
+        return HttpClient.newHttpClient().newWebSocketBuilder()
+                .buildAsync(URI.create("ws://localhost:" + port + "/ws"), new WebSocket.Listener() {
+                    @Override
+                    public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+                        messages.add(data.toString());
+                        webSocket.request(1);
+                        return null;
+                    }
+                }).get();
+    }
+
+    private static void send(WebSocket socket, UserGameCommand command) throws Exception {
+        socket.sendText(GSON.toJson(command), true).get();
+    }
+
+    private static void expect(BlockingQueue<String> messages, ServerMessage.ServerMessageType type, Integer gameID)
+            throws InterruptedException {
+        var json = messages.poll(5, TimeUnit.SECONDS);
+        Assertions.assertNotNull(json, "no " + type + " for game " + gameID);
+        var message = GSON.fromJson(json, ServerMessage.class);
+        Assertions.assertEquals(type, message.getServerMessageType(), json);
+        Assertions.assertEquals(gameID, message.getGameID(), json);
+    }
+}
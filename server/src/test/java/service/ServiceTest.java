@@ -1,17 +1,44 @@
 package service;
 
 import chess.ChessGame;
+import chess.ChessMove;
+import chess.ChessPosition;
 import dataaccess.MemoryDataAccess;
 import model.*;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static org.junit.jupiter.api.Assertions.fail;
 
 public class ServiceTest {
+    private final ArrayList<AutoCloseable> opened = new ArrayList<>();
+
+    /**
+     * @return resource, closed after the test so its background sweeps stop
+     */
+    private <T extends AutoCloseable> T open(T resource) {
+        opened.add(resource);
+        return resource;
+    }
+
+    @AfterEach
+    public void closeOpened() throws Exception {
+        for(var resource : opened) {
+            resource.close();
+        }
+    }
+
     @Test
     public void registerNormal() throws Exception {
-        var dataAccess = new MemoryDataAccess();
+        var dataAccess = open(new MemoryDataAccess());
         var userService = new Service(dataAccess);
 
         var res = userService.register(new RegisterRequest("cow", "rat", "john"));
@@ -22,7 +49,7 @@ public class ServiceTest {
 
     @Test
     public void registerFailure() throws Exception {
-        var dataAccess = new MemoryDataAccess();
+        var dataAccess = open(new MemoryDataAccess());
         var userService = new Service(dataAccess);
         userService.register(new RegisterRequest("cow", "rat", "john"));
         try {
@@ -37,7 +64,7 @@ public class ServiceTest {
 
     @Test
     public void clearSuccess() throws Exception {
-        var dataAccess = new MemoryDataAccess();
+        var dataAccess = open(new MemoryDataAccess());
         var userService = new Service(dataAccess);
         userService.clear();
         userService.register(new RegisterRequest("cow", "rat", "john"));
@@ -47,7 +74,7 @@ public class ServiceTest {
 
     @Test
     public void registerAfterClear() throws Exception{
-        var dataAccess = new MemoryDataAccess();
+        var dataAccess = open(new MemoryDataAccess());
         var userService = new Service(dataAccess);
         userService.register(new RegisterRequest("cow", "rat", "john"));
         userService.clear();
@@ -57,7 +84,7 @@ public class ServiceTest {
 
     @Test
     public void loginNormal() throws Exception {
-        var dataAccess = new MemoryDataAccess();
+        var dataAccess = open(new MemoryDataAccess());
         var userService = new Service(dataAccess);
         userService.register(new RegisterRequest("cow","rat", "john"));
         var res = userService.login(new LoginRequest("cow", "rat"));
@@ -66,7 +93,7 @@ public class ServiceTest {
 
     @Test
     public void loginWrongUsername() throws Exception {
-        var dataAccess = new MemoryDataAccess();
+        var dataAccess = open(new MemoryDataAccess());
         var userService = new Service(dataAccess);
         userService.register(new RegisterRequest("cow","rat","john"));
         try {
@@ -81,7 +108,7 @@ public class ServiceTest {
 
     @Test
     public void loginWrongPassword() throws Exception {
-        var dataAccess = new MemoryDataAccess();
+        var dataAccess = open(new MemoryDataAccess());
         var userService = new Service(dataAccess);
         userService.register(new RegisterRequest("cow","rat","john"));
         try {
@@ -96,7 +123,7 @@ public class ServiceTest {
 
     @Test
     public void logoutSuccess() throws Exception {
-        var dataAccess = new MemoryDataAccess();
+        var dataAccess = open(new MemoryDataAccess());
         var userService = new Service(dataAccess);
         var regResult = userService.register(new RegisterRequest("cow","rat","john"));
         var authToken = regResult.authToken();
@@ -106,7 +133,7 @@ public class ServiceTest {
 
     @Test
     public void logoutFailure() throws Exception {
-        var dataAccess = new MemoryDataAccess();
+        var dataAccess = open(new MemoryDataAccess());
         var userService = new Service(dataAccess);
         userService.register(new RegisterRequest("cow","rat", "john"));
         try {
@@ -121,7 +148,7 @@ public class ServiceTest {
 
     @Test
     public void listGamesSuccess() throws Exception {
-        var dataAccess = new MemoryDataAccess();
+        var dataAccess = open(new MemoryDataAccess());
         var userService = new Service(dataAccess);
         var regResult = userService.register(new RegisterRequest("cow","rat","john"));
         var authToken = regResult.authToken();
@@ -142,7 +169,7 @@ public class ServiceTest {
 
     @Test
     public void listGamesFailure() throws Exception {
-        var dataAccess = new MemoryDataAccess();
+        var dataAccess = open(new MemoryDataAccess());
         var userService = new Service(dataAccess);
         userService.register(new RegisterRequest("cow","rat", "john"));
         try {
@@ -157,7 +184,7 @@ public class ServiceTest {
 
     @Test
     public void createGameSuccess() throws Exception {
-        var dataAccess = new MemoryDataAccess();
+        var dataAccess = open(new MemoryDataAccess());
         var userService = new Service(dataAccess);
         var regResult = userService.register(new RegisterRequest("cow","rat","john"));
         var authToken = regResult.authToken();
@@ -168,7 +195,7 @@ public class ServiceTest {
 
     @Test
     public void createGameFailure() throws Exception {
-        var dataAccess = new MemoryDataAccess();
+        var dataAccess = open(new MemoryDataAccess());
         var userService = new Service(dataAccess);
         userService.register(new RegisterRequest("cow","rat", "john"));
         try {
@@ -181,9 +208,92 @@ public class ServiceTest {
         }
     }
 
+    @Test
+    public void concurrentCreateGameUniqueIDs() throws Exception {
+        var dataAccess = open(new MemoryDataAccess());
+        var userService = new Service(dataAccess);
+        var authToken = userService.register(new RegisterRequest("cow","rat","john")).authToken();
+        var gameIDs = ConcurrentHashMap.<Integer>newKeySet();
+        var threads = new ArrayList<Thread>();
+        for(int i = 0; i < 8; i++) {
+            var thread = new Thread(() -> {
+                try {
+                    for(int j = 0; j < 250; j++) {
+                        var gameID = userService.createGame(new CreateGameRequest(authToken, "NEW GAME")).gameID();
+                        userService.joinGame(new JoinGameRequest(authToken, ChessGame.TeamColor.WHITE, gameID));
+                        gameIDs.add(gameID);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for(var thread : threads) {
+            thread.join();
+        }
+        Assertions.assertEquals(2000, gameIDs.size());
+        Assertions.assertEquals(2000, dataAccess.listGames().size());
+        Assertions.assertEquals(2000, dataAccess.gamesForPlayer("cow").size());
+    }
+
+    @Test
+    public void playerIndexFollowsSeats() throws Exception {
+        var dataAccess = open(new MemoryDataAccess());
+        var gameID = dataAccess.createGame("musical chairs");
+        var threads = new ArrayList<Thread>();
+        for(int i = 0; i < 8; i++) {
+            var username = "player" + i;
+            var thread = new Thread(() -> {
+                for(int round = 0; round < 2000; round++) {
+                    if(dataAccess.addPlayerToGame(username, ChessGame.TeamColor.WHITE, gameID)) {
+                        dataAccess.removeFromGame(gameID, ChessGame.TeamColor.WHITE);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for(var thread : threads) {
+            thread.join();
+        }
+        Assertions.assertTrue(dataAccess.addPlayerToGame("player0", ChessGame.TeamColor.WHITE, gameID));
+        for(int i = 0; i < 8; i++) {
+            Assertions.assertEquals(i == 0 ? 1 : 0, dataAccess.gamesForPlayer("player" + i).size(), "player" + i);
+        }
+    }
+
+    @Test
+    public void createGamesSuccess() throws Exception {
+        var dataAccess = open(new MemoryDataAccess());
+        var userService = new Service(dataAccess);
+        var authToken = userService.register(new RegisterRequest("cow","rat","john")).authToken();
+        var names = new ArrayList<>(List.of("board 1", "board 2", "board 3"));
+        var res = userService.createGames(new CreateGamesRequest(authToken, names));
+        Assertions.assertEquals(3, res.gameIDs().size());
+        for(int i = 0; i < names.size(); i++) {
+            Assertions.assertEquals(names.get(i), dataAccess.getGame(res.gameIDs().get(i)).gameName());
+        }
+    }
+
+    @Test
+    public void createGamesFailure() throws Exception {
+        var dataAccess = open(new MemoryDataAccess());
+        var userService = new Service(dataAccess);
+        var authToken = userService.register(new RegisterRequest("cow","rat","john")).authToken();
+        try {
+            userService.createGames(new CreateGamesRequest(authToken, new ArrayList<>()));
+            fail("Expected exception to be thrown");
+        }
+        catch (ServiceException e) {
+            Assertions.assertEquals(0, dataAccess.listGames().size());
+        }
+    }
+
     @Test
     public void joinGameSuccess() throws Exception{
-        var dataAccess = new MemoryDataAccess();
+        var dataAccess = open(new MemoryDataAccess());
         var userService = new Service(dataAccess);
         var regResult = userService.register(new RegisterRequest("cow","rat","john"));
         var authToken = regResult.authToken();
@@ -197,7 +307,7 @@ public class ServiceTest {
 
     @Test
     public void joinNonexistentGame() throws Exception{
-        var dataAccess = new MemoryDataAccess();
+        var dataAccess = open(new MemoryDataAccess());
         var userService = new Service(dataAccess);
         var regResult = userService.register(new RegisterRequest("cow","rat","john"));
         var authToken = regResult.authToken();
@@ -214,7 +324,7 @@ public class ServiceTest {
 
     @Test
     public void joinGameWrongColor() throws Exception{
-        var dataAccess = new MemoryDataAccess();
+        var dataAccess = open(new MemoryDataAccess());
         var userService = new Service(dataAccess);
         var regResult = userService.register(new RegisterRequest("cow","rat","john"));
         var authToken = regResult.authToken();
@@ -233,7 +343,7 @@ public class ServiceTest {
 
     @Test
     public void joinGameDuplicateColor() throws Exception{
-        var dataAccess = new MemoryDataAccess();
+        var dataAccess = open(new MemoryDataAccess());
         var userService = new Service(dataAccess);
         var regResult = userService.register(new RegisterRequest("cow","rat","john"));
         var authToken = regResult.authToken();
@@ -252,5 +362,287 @@ public class ServiceTest {
         }
     }
 
-}
+    @Test
+    public void joinGameRaceHasOneWinner() throws Exception {
+        var dataAccess = open(new MemoryDataAccess());
+        var userService = new Service(dataAccess);
+        var tokens = new ArrayList<String>();
+        for(int i = 0; i < 8; i++) {
+            tokens.add(userService.register(new RegisterRequest("player" + i, "pw", "email")).authToken());
+        }
+        var gameID = userService.createGame(new CreateGameRequest(tokens.getFirst(), "NEW GAME")).gameID();
+        var start = new CountDownLatch(1);
+        var winners = new AtomicInteger();
+        var threads = new ArrayList<Thread>();
+        for(var token : tokens) {
+            var thread = new Thread(() -> {
+                try {
+                    start.await();
+                    userService.joinGame(new JoinGameRequest(token, ChessGame.TeamColor.WHITE, gameID));
+                    winners.incrementAndGet();
+                } catch (Exception e) {
+                    //lost the race
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for(var thread : threads) {
+            thread.join();
+        }
+        Assertions.assertEquals(1, winners.get());
+        Assertions.assertNotNull(dataAccess.getGame(gameID).whiteUsername());
+    }
+
+    @Test
+    public void getGameSuccess() throws Exception {
+        var dataAccess = open(new MemoryDataAccess());
+        var userService = new Service(dataAccess);
+        var authToken = userService.register(new RegisterRequest("cow","rat","john")).authToken();
+        var gameID = userService.createGame(new CreateGameRequest(authToken,"NEW GAME")).gameID();
+        var res = userService.getGame(new GetGameRequest(authToken, gameID, null));
+        Assertions.assertEquals("NEW GAME", res.game().gameName());
+        var unchanged = userService.getGame(new GetGameRequest(authToken, gameID, res.revision()));
+        Assertions.assertNull(unchanged.game());
+        userService.joinGame(new JoinGameRequest(authToken, ChessGame.TeamColor.WHITE, gameID));
+        var changed = userService.getGame(new GetGameRequest(authToken, gameID, res.revision()));
+        Assertions.assertEquals("cow", changed.game().whiteUsername());
+        Assertions.assertNotEquals(res.revision(), changed.revision());
+    }
 
+    @Test
+    public void getNonexistentGame() throws Exception {
+        var dataAccess = open(new MemoryDataAccess());
+        var userService = new Service(dataAccess);
+        var authToken = userService.register(new RegisterRequest("cow","rat","john")).authToken();
+        try {
+            userService.getGame(new GetGameRequest(authToken, 9, null));
+            fail("Expected exception to be thrown");
+        }
+        catch (ServiceException e) {
+            Assertions.assertTrue(true);
+            //Test passed, exception thrown as expected
+        }
+    }
+
+    @Test
+    public void listGameSummariesSuccess() throws Exception {
+        var dataAccess = open(new MemoryDataAccess());
+        var userService = new Service(dataAccess);
+        var authToken = userService.register(new RegisterRequest("cow","rat","john")).authToken();
+        for(int i = 0; i < 5; i++) {
+            userService.createGame(new CreateGameRequest(authToken, "Game" + i));
+        }
+        var firstPage = userService.listGameSummaries(new ListGameSummariesRequest(authToken, 0, 3, null, null));
+        Assertions.assertEquals(3, firstPage.games().size());
+        Assertions.assertNotNull(firstPage.nextCursor());
+        var secondPage = userService.listGameSummaries(new ListGameSummariesRequest(authToken, firstPage.nextCursor(), 3, null, null));
+        Assertions.assertEquals(2, secondPage.games().size());
+        Assertions.assertNull(secondPage.nextCursor());
+
+        var joinedID = firstPage.games().getFirst().gameID();
+        userService.joinGame(new JoinGameRequest(authToken, ChessGame.TeamColor.WHITE, joinedID));
+        userService.joinGame(new JoinGameRequest(authToken, ChessGame.TeamColor.BLACK, joinedID));
+        var open = userService.listGameSummaries(new ListGameSummariesRequest(authToken, 0, 0, true, GameSummary.Status.IN_PROGRESS));
+        Assertions.assertEquals(4, open.games().size());
+        var full = userService.listGameSummaries(new ListGameSummariesRequest(authToken, 0, 0, false, null));
+        Assertions.assertEquals(List.of(joinedID), full.games().stream().map(GameSummary::gameID).toList());
+
+        var finishedID = open.games().getLast().gameID();
+        var finished = dataAccess.getGame(finishedID);
+        finished.game().setGameOver(true);
+        dataAccess.updateGame(finished);
+        dataAccess.removeFromGame(joinedID, ChessGame.TeamColor.BLACK);
+        var finishedPage = userService.listGameSummaries(new ListGameSummariesRequest(authToken, 0, 0, null, GameSummary.Status.FINISHED));
+        Assertions.assertEquals(List.of(finishedID), finishedPage.games().stream().map(GameSummary::gameID).toList());
+        var openPage = userService.listGameSummaries(new ListGameSummariesRequest(authToken, 0, 2, true, GameSummary.Status.IN_PROGRESS));
+        Assertions.assertEquals(2, openPage.games().size());
+        var lastOpenPage = userService.listGameSummaries(new ListGameSummariesRequest(authToken, openPage.nextCursor(), 2, true, GameSummary.Status.IN_PROGRESS));
+        Assertions.assertEquals(2, lastOpenPage.games().size());
+        Assertions.assertEquals(0, userService.listGameSummaries(new ListGameSummariesRequest(authToken, lastOpenPage.nextCursor(), 2, true,
+                GameSummary.Status.IN_PROGRESS)).games().size());
+    }
+
+    @Test
+    public void listGameSummariesFailure() throws Exception {
+        var dataAccess = open(new MemoryDataAccess());
+        var userService = new Service(dataAccess);
+        userService.register(new RegisterRequest("cow","rat", "john"));
+        try {
+            userService.listGameSummaries(new ListGameSummariesRequest("wrong", 0, 0, null, null));
+            fail("Expected exception to be thrown");
+        }
+        catch (ServiceException e) {
+            Assertions.assertTrue(true);
+            //Test passed, exception thrown as expected
+        }
+    }
+
+    @Test
+    public void archiveFinishedGamesSuccess() throws Exception {
+        var dataAccess = open(new MemoryDataAccess());
+        var userService = new Service(dataAccess);
+        var authToken = userService.register(new RegisterRequest("cow","rat","john")).authToken();
+        var finishedID = userService.createGame(new CreateGameRequest(authToken, "Finished")).gameID();
+        userService.createGame(new CreateGameRequest(authToken, "Live"));
+        userService.joinGame(new JoinGameRequest(authToken, ChessGame.TeamColor.WHITE, finishedID));
+        var finished = dataAccess.getGame(finishedID);
+        finished.game().setGameOver(true);
+        dataAccess.updateGame(finished);
+
+        Assertions.assertEquals(1, userService.archiveFinishedGames());
+        Assertions.assertEquals(1, dataAccess.listGames().size());
+        Assertions.assertTrue(dataAccess.getGame(finishedID).game().gameOver());
+        var archived = userService.listArchivedGames(new ArchivedGamesRequest(authToken, "cow", 0, 0));
+        Assertions.assertEquals(1, archived.games().size());
+        Assertions.assertEquals(GameSummary.Status.FINISHED, archived.games().getFirst().status());
+        Assertions.assertEquals(0, userService.listArchivedGames(new ArchivedGamesRequest(authToken, "nobody", 0, 0)).games().size());
+    }
+
+    @Test
+    public void hibernatedGameWakesOnRead() throws Exception {
+        var dataAccess = open(new MemoryDataAccess(Duration.ofHours(1), Duration.ZERO));
+        var userService = new Service(dataAccess);
+        var authToken = userService.register(new RegisterRequest("cow","rat","john")).authToken();
+        var gameID = userService.createGame(new CreateGameRequest(authToken, "Idle")).gameID();
+        var gameData = dataAccess.getGame(gameID);
+        gameData.game().makeMove(new ChessMove(new ChessPosition(2, 5), new ChessPosition(4, 5), null));
+        dataAccess.updateGame(gameData);
+
+        Assertions.assertEquals(1, dataAccess.hibernateIdleGames());
+        var summary = userService.listGameSummaries(new ListGameSummariesRequest(authToken, 0, 0, null, null)).games().getFirst();
+        Assertions.assertEquals(1, summary.moveCount());
+        userService.joinGame(new JoinGameRequest(authToken, ChessGame.TeamColor.BLACK, gameID));
+        Assertions.assertEquals(1, dataAccess.hibernateIdleGames());
+        var woken = dataAccess.getGame(gameID);
+        Assertions.assertEquals(gameData.game().getBoard(), woken.game().getBoard());
+        Assertions.assertEquals(ChessGame.TeamColor.BLACK, woken.game().getTeamTurn());
+        Assertions.assertEquals("cow", woken.blackUsername());
+    }
+
+    @Test
+    public void watchedGameStaysAwake() throws Exception {
+        var dataAccess = open(new MemoryDataAccess(Duration.ofHours(1), Duration.ofMillis(300)));
+        var userService = new Service(dataAccess);
+        var authToken = userService.register(new RegisterRequest("cow","rat","john")).authToken();
+        var gameID = userService.createGame(new CreateGameRequest(authToken, "Watched")).gameID();
+        Thread.sleep(400);
+        Assertions.assertEquals(1, dataAccess.hibernateIdleGames());
+        var listed = dataAccess.listGames().getFirst().game();
+        Assertions.assertSame(listed, dataAccess.listGames().getFirst().game());
+
+        // fetched twice since the wake, so only the reads keep it awake
+        dataAccess.getGame(gameID);
+        Thread.sleep(200);
+        dataAccess.getGame(gameID);
+        Thread.sleep(200);
+        Assertions.assertEquals(0, dataAccess.hibernateIdleGames());
+        Thread.sleep(400);
+        Assertions.assertEquals(1, dataAccess.hibernateIdleGames());
+    }
+
+    @Test
+    public void listArchivedGamesFailure() throws Exception {
+        var dataAccess = open(new MemoryDataAccess());
+        var userService = new Service(dataAccess);
+        var authToken = userService.register(new RegisterRequest("cow","rat", "john")).authToken();
+        try {
+            userService.listArchivedGames(new ArchivedGamesRequest(authToken, null, -1, 0));
+            fail("Expected exception to be thrown");
+        }
+        catch (ServiceException e) {
+            Assertions.assertEquals(400, e.toHttpStatusCode());
+        }
+    }
+
+    @Test
+    public void logoutNotifiesRevocationListeners() throws Exception {
+        var dataAccess = open(new MemoryDataAccess());
+        var userService = new Service(dataAccess);
+        var revoked = new ArrayList<String>();
+        userService.addRevocationListener(revoked::add);
+        var authToken = userService.register(new RegisterRequest("cow","rat","john")).authToken();
+        userService.logout(new AuthorizationRequest(authToken));
+        Assertions.assertEquals(List.of(authToken), revoked);
+    }
+
+    @Test
+    public void expiredTokenRejected() throws Exception {
+        var dataAccess = open(new MemoryDataAccess(Duration.ofMillis(50)));
+        var userService = new Service(dataAccess);
+        var authToken = userService.register(new RegisterRequest("cow","rat","john")).authToken();
+        Thread.sleep(100);
+        try {
+            userService.listGames(new AuthorizationRequest(authToken));
+            fail("Expected exception to be thrown");
+        }
+        catch (ServiceException e) {
+            Assertions.assertTrue(true);
+            //Test passed, exception thrown as expected
+        }
+    }
+
+    @Test
+    public void signedTokenSuccess() throws Exception {
+        var dataAccess = open(new MemoryDataAccess());
+        var userService = new Service(dataAccess, open(new SignedTokens(SignedTokens.randomKey(), Duration.ofHours(1))));
+        var authToken = userService.register(new RegisterRequest("cow","rat","john")).authToken();
+        Assertions.assertNull(dataAccess.findAuth(authToken));
+        Assertions.assertEquals("cow", userService.checkAuthorization(new AuthorizationRequest(authToken)));
+        var gameID = userService.createGame(new CreateGameRequest(authToken, "NEW GAME")).gameID();
+        userService.joinGame(new JoinGameRequest(authToken, ChessGame.TeamColor.WHITE, gameID));
+        Assertions.assertEquals("cow", dataAccess.getGame(gameID).whiteUsername());
+    }
+
+    @Test
+    public void signedTokenRejected() throws Exception {
+        var dataAccess = open(new MemoryDataAccess());
+        var userService = new Service(dataAccess, open(new SignedTokens(SignedTokens.randomKey(), Duration.ofHours(1))));
+        var authToken = userService.register(new RegisterRequest("cow","rat","john")).authToken();
+        var forged = authToken.substring(0, authToken.lastIndexOf('.') + 1) + "forged";
+        Assertions.assertNull(userService.authenticate(forged));
+        userService.logout(new AuthorizationRequest(authToken));
+        try {
+            userService.listGames(new AuthorizationRequest(authToken));
+            fail("Expected exception to be thrown");
+        }
+        catch (ServiceException e) {
+            Assertions.assertTrue(true);
+            //Test passed, exception thrown as expected
+        }
+    }
+
+    @Test
+    public void clearRevokesTokensFromTheSameMillisecond() {
+        var tokens = open(new SignedTokens(SignedTokens.randomKey(), Duration.ofHours(1)));
+        for(int i = 0; i < 100; i++) {
+            // with nothing between them, most rounds issue and clear within one millisecond
+            var before = tokens.issue("cow");
+            tokens.revokeAll();
+            var after = tokens.issue("cow");
+            Assertions.assertNull(tokens.verify(before), "round " + i);
+            Assertions.assertEquals("cow", tokens.verify(after), "round " + i);
+        }
+        var remote = tokens.issue("cow");
+        tokens.revokeIssuedThrough(tokens.revokedThrough() + 1000);
+        Assertions.assertNull(tokens.verify(remote));
+        Assertions.assertEquals("cow", tokens.verify(tokens.issue("cow")));
+    }
+
+    @Test
+    public void loginRehashesAtNewCost() throws Exception {
+        var dataAccess = open(new MemoryDataAccess());
+        new Service(dataAccess, null, new PasswordHasher(4, 1, 4, (operation, nanos) -> {}))
+                .register(new RegisterRequest("cow","rat","john"));
+        Assertions.assertTrue(dataAccess.getUser("cow").password().startsWith("$2a$04$"));
+        var userService = new Service(dataAccess, null, new PasswordHasher(5, 1, 4, (operation, nanos) -> {}));
+        userService.login(new LoginRequest("cow", "rat"));
+        for (int i = 0; i < 100 && dataAccess.getUser("cow").password().startsWith("$2a$04$"); i++) {
+            Thread.sleep(10);
+        }
+        Assertions.assertTrue(dataAccess.getUser("cow").password().startsWith("$2a$05$"));
+        userService.login(new LoginRequest("cow", "rat"));
+    }
+
+}
@@ -27,6 +27,7 @@ public class ChessGame {
     private TeamColor currentTeam;
     private ChessBoard board;
     private final Stack<ChessBoard> pastBoards;
+    private ArrayList<ChessMove> moveHistory;
     private boolean gameOver;
 
     public ChessGame() {
@@ -34,11 +35,13 @@ public class ChessGame {
         board.resetBoard();
         currentTeam = TeamColor.WHITE;
         pastBoards = new Stack<>();
+        moveHistory = new ArrayList<>();
         gameOver = false;
     }
     public ChessGame(ChessBoard board) {
         this.board = board;
         pastBoards = new Stack<>();
+        moveHistory = new ArrayList<>();
         gameOver = false;
     }
     public boolean gameOver() {
@@ -47,6 +50,33 @@ public class ChessGame {
     public void setGameOver(boolean bool) {
         gameOver = bool;
     }
+    /**
+     * @return How many moves have been made in this game
+     */
+    public int getMoveCount() {
+        return pastBoards.size();
+    }
+    /**
+     * @return The moves made so far, in order. Games restored from a format that did
+     * not record moves may have fewer entries than getMoveCount()
+     */
+    public List<ChessMove> getMoveHistory() {
+        return moveHistory == null ? List.of() : Collections.unmodifiableList(moveHistory);
+    }
+    /**
+     * @return A copy of this game that can be moved without changing this one
+     */
+    public ChessGame copy() {
+        var copy = new ChessGame(board.clone());
+        copy.currentTeam = currentTeam;
+        copy.pastBoards.addAll(pastBoards());
+        copy.moveHistory.addAll(getMoveHistory());
+        copy.gameOver = gameOver;
+        return copy;
+    }
+    List<ChessBoard> pastBoards() {
+        return pastBoards == null ? List.of() : Collections.unmodifiableList(pastBoards);
+    }
     /**
      * @return Which team's turn it is
      */
@@ -317,7 +347,6 @@ public class ChessGame {
             throw new InvalidMoveException();
         }
         ChessPosition startPosition = move.getStartPosition();
-        ChessPosition endPosition = move.getEndPosition();
         Collection<ChessMove> validMoves = validMoves(startPosition);
         boolean valid = false;
         for(var validMove : validMoves) {
@@ -327,26 +356,7 @@ public class ChessGame {
             }
         }
         if(!valid) {throw new InvalidMoveException();}
-        else {
-            ChessPiece capturedPiece = board.getPiece(endPosition);
-            pastBoards.push(board.clone());
-            var piece = board.getPiece(startPosition);
-            board.movePiece(move);
-            var distanceTraveled = abs(move.getStartPosition().getColumn() - move.getEndPosition().getColumn());
-            var unlabeledCastle = piece.getPieceType() == ChessPiece.PieceType.KING && distanceTraveled == 2;
-            if(move.isCastle() || unlabeledCastle) {
-                board.movePiece(identifyOtherCastle(move));
-            }
-            if(isEnPassant(move, capturedPiece)) {
-                var enemyPosition = enemyLocation(endPosition);
-                board.removePiece(enemyPosition);
-            }
-        }
-        if(currentTeam == TeamColor.BLACK) {
-            currentTeam = TeamColor.WHITE;
-        } else if(currentTeam == TeamColor.WHITE) {
-            currentTeam = TeamColor.BLACK;
-        }
+        applyMove(move);
         if(isInCheckmate(TeamColor.WHITE) || isInCheckmate(TeamColor.BLACK)) {
             gameOver = true;
         }
@@ -354,6 +364,37 @@ public class ChessGame {
             gameOver = true;
         }
     }
+    /**
+     * Plays a move that was already checked by makeMove when it was first made, such
+     * as one read back from storage. Nothing is validated and game over is not
+     * recomputed, so the caller must restore that itself.
+     */
+    void applyMove(ChessMove move) {
+        ChessPosition startPosition = move.getStartPosition();
+        ChessPosition endPosition = move.getEndPosition();
+        ChessPiece capturedPiece = board.getPiece(endPosition);
+        pastBoards.push(board.clone());
+        if(moveHistory == null) {
+            moveHistory = new ArrayList<>();
+        }
+        moveHistory.add(move);
+        var piece = board.getPiece(startPosition);
+        board.movePiece(move);
+        var distanceTraveled = abs(move.getStartPosition().getColumn() - move.getEndPosition().getColumn());
+        var unlabeledCastle = piece.getPieceType() == ChessPiece.PieceType.KING && distanceTraveled == 2;
+        if(move.isCastle() || unlabeledCastle) {
+            board.movePiece(identifyOtherCastle(move));
+        }
+        if(isEnPassant(move, capturedPiece)) {
+            var enemyPosition = enemyLocation(endPosition);
+            board.removePiece(enemyPosition);
+        }
+        if(currentTeam == TeamColor.BLACK) {
+            currentTeam = TeamColor.WHITE;
+        } else if(currentTeam == TeamColor.WHITE) {
+            currentTeam = TeamColor.BLACK;
+        }
+    }
     private boolean isEnPassant(ChessMove move, ChessPiece capturedPiece) {
         var startPos = move.getStartPosition();
         var endPos = move.getEndPosition();
@@ -0,0 +1,246 @@
+package chess;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A compact, versioned binary form of a ChessGame for storage. Rather than every
+ * board the game has passed through, it records where the game started and the moves
+ * played since, two bytes per move. Decoding plays the moves back without checking
+ * them again, which is only safe for bytes this class wrote.
+ * <p>
+ * Version 1 layout:
+ * <pre>
+ * byte    version
+ * byte    flags: bit 0 game over, bit 1 custom start position
+ * [33]    only with a custom start: 64 four-bit squares, then the team to move
+ * varint  number of moves
+ * 2 * n   moves, as packed by {@link MoveEncoding}
+ * </pre>
+ */
+public final class GameCodec {
+    public static final int VERSION = 1;
+    private static final int GAME_OVER = 1;
+    private static final int CUSTOM_START = 2;
+
+    private GameCodec() {
+    }
+
+    public static byte[] encode(ChessGame game) {
+        var out = new ByteArrayOutputStream();
+        out.write(VERSION);
+        var history = history(game);
+        ChessBoard start;
+        ChessGame.TeamColor startTurn;
+        if (history != null) {
+            var pastBoards = game.pastBoards();
+            start = pastBoards.isEmpty() ? game.getBoard() : pastBoards.getFirst();
+            startTurn = turnBefore(game, history.size());
+        } else {
+            // no usable history: the current position becomes the start
+            history = List.of();
+            start = game.getBoard();
+            startTurn = game.getTeamTurn();
+        }
+        var customStart = !isStandardStart(start, startTurn);
+        out.write((game.gameOver() ? GAME_OVER : 0) | (customStart ? CUSTOM_START : 0));
+        if (customStart) {
+            writeBoard(out, start);
+            out.write(startTurn == ChessGame.TeamColor.BLACK ? 1 : 0);
+        }
+        writeVarint(out, history.size());
+        for (var move : history) {
+            var encoded = MoveEncoding.encode(move);
+            out.write(encoded >> 8);
+            out.write(encoded & 0xFF);
+        }
+        return out.toByteArray();
+    }
+
+    public static ChessGame decode(byte[] bytes) throws InvalidMoveException {
+        var in = ByteBuffer.wrap(bytes);
+        var version = in.get() & 0xFF;
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported game encoding version " + version);
+        }
+        var flags = in.get() & 0xFF;
+        ChessGame game;
+        if ((flags & CUSTOM_START) != 0) {
+            game = new ChessGame(readBoard(in));
+            game.setTeamTurn(in.get() == 1 ? ChessGame.TeamColor.BLACK : ChessGame.TeamColor.WHITE);
+        } else {
+            game = new ChessGame();
+        }
+        var moveCount = readVarint(in);
+        for (int i = 0; i < moveCount; i++) {
+            replay(game, in.getShort() & 0xFFFF, i + 1);
+        }
+        game.setGameOver((flags & GAME_OVER) != 0);
+        return game;
+    }
+
+    /**
+     * Plays a move packed by {@link MoveEncoding} that was read back from storage, such
+     * as a move log written after the last snapshot. Like decode it does not check the
+     * move again or recompute game over, so the caller restores that from storage.
+     */
+    public static void replay(ChessGame game, int encodedMove) throws InvalidMoveException {
+        replay(game, encodedMove, game.getMoveCount() + 1);
+    }
+
+    private static void replay(ChessGame game, int encodedMove, int ply) throws InvalidMoveException {
+        var move = MoveEncoding.decode(encodedMove);
+        var piece = game.getBoard().getPiece(move.getStartPosition());
+        if (piece == null || piece.getTeamColor() != game.getTeamTurn()) {
+            throw new InvalidMoveException("Stored move " + ply + " does not fit the board");
+        }
+        // every stored move passed makeMove when it was played, so only the board is updated
+        game.applyMove(move);
+    }
+
+    /**
+     * @return the moves that lead from the game's first board to its current one, or
+     * null if they cannot be recovered. Games from before move history was kept have
+     * their moves worked out from consecutive boards.
+     */
+    private static List<ChessMove> history(ChessGame game) {
+        var pastBoards = game.pastBoards();
+        if (game.getMoveHistory().size() == pastBoards.size()) {
+            return game.getMoveHistory();
+        }
+        var replay = new ChessGame(pastBoards.getFirst().clone());
+        replay.setTeamTurn(turnBefore(game, pastBoards.size()));
+        var moves = new ArrayList<ChessMove>();
+        for (int i = 1; i <= pastBoards.size(); i++) {
+            var target = i < pastBoards.size() ? pastBoards.get(i) : game.getBoard();
+            var move = findMove(replay, target);
+            if (move == null) {
+                return null;
+            }
+            moves.add(move);
+        }
+        return moves;
+    }
+
+    private static ChessMove findMove(ChessGame replay, ChessBoard target) {
+        for (int row = 1; row <= 8; row++) {
+            for (int col = 1; col <= 8; col++) {
+                var position = new ChessPosition(row, col);
+                var piece = replay.getBoard().getPiece(position);
+                if (piece == null || piece.getTeamColor() != replay.getTeamTurn()) {
+                    continue;
+                }
+                for (var move : replay.validMoves(position)) {
+                    // cheap check first, so a full replay only happens for the likely move
+                    if (target.getPiece(move.getStartPosition()) != null || !landsOn(target, move, piece)) {
+                        continue;
+                    }
+                    var attempt = copy(replay);
+                    try {
+                        attempt.makeMove(move);
+                    } catch (InvalidMoveException ex) {
+                        continue;
+                    }
+                    if (attempt.getBoard().equals(target)) {
+                        try {
+                            replay.makeMove(move);
+                        } catch (InvalidMoveException ex) {
+                            return null;
+                        }
+                        return move;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean landsOn(ChessBoard target, ChessMove move, ChessPiece piece) {
+        var landed = target.getPiece(move.getEndPosition());
+        var type = move.getPromotionPiece() == null ? piece.getPieceType() : move.getPromotionPiece();
+        return landed != null && landed.getTeamColor() == piece.getTeamColor() && landed.getPieceType() == type;
+    }
+
+    private static ChessGame copy(ChessGame game) {
+        var copy = new ChessGame(game.pastBoards().isEmpty() ? game.getBoard().clone() : game.pastBoards().getFirst().clone());
+        copy.setTeamTurn(turnBefore(game, game.getMoveCount()));
+        for (var move : game.getMoveHistory()) {
+            try {
+                copy.makeMove(move);
+            } catch (InvalidMoveException ex) {
+                throw new IllegalStateException("replayed history is no longer legal", ex);
+            }
+        }
+        return copy;
+    }
+
+    private static ChessGame.TeamColor turnBefore(ChessGame game, int moves) {
+        var turn = game.getTeamTurn() == null ? ChessGame.TeamColor.WHITE : game.getTeamTurn();
+        if (moves % 2 == 0) {
+            return turn;
+        }
+        return turn == ChessGame.TeamColor.WHITE ? ChessGame.TeamColor.BLACK : ChessGame.TeamColor.WHITE;
+    }
+
+    private static boolean isStandardStart(ChessBoard board, ChessGame.TeamColor turn) {
+        var standard = new ChessBoard();
+        standard.resetBoard();
+        return turn == ChessGame.TeamColor.WHITE && standard.equals(board);
+    }
+
+    private static void writeBoard(ByteArrayOutputStream out, ChessBoard board) {
+        for (int square = 0; square < 64; square += 2) {
+            out.write((pieceCode(board, square) << 4) | pieceCode(board, square + 1));
+        }
+    }
+
+    private static ChessBoard readBoard(ByteBuffer in) {
+        var board = new ChessBoard();
+        for (int square = 0; square < 64; square += 2) {
+            var packed = in.get() & 0xFF;
+            placePiece(board, square, packed >> 4);
+            placePiece(board, square + 1, packed & 0xF);
+        }
+        return board;
+    }
+
+    private static int pieceCode(ChessBoard board, int square) {
+        var piece = board.getPiece(new ChessPosition(square / 8 + 1, square % 8 + 1));
+        if (piece == null) {
+            return 0;
+        }
+        var code = piece.getPieceType().ordinal() + 1;
+        return piece.getTeamColor() == ChessGame.TeamColor.BLACK ? code | 8 : code;
+    }
+
+    private static void placePiece(ChessBoard board, int square, int code) {
+        if (code == 0) {
+            return;
+        }
+        var color = (code & 8) != 0 ? ChessGame.TeamColor.BLACK : ChessGame.TeamColor.WHITE;
+        var type = ChessPiece.PieceType.values()[(code & 7) - 1];
+        board.addPiece(new ChessPosition(square / 8 + 1, square % 8 + 1), new ChessPiece(color, type));
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(ByteBuffer in) {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.get() & 0xFF;
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,34 @@
+package chess;
+
+/**
+ * Packs a ChessMove into 16 bits: six bits each for the start and end squares,
+ * three bits for the promotion piece (0 for none) and one bit for the castle flag.
+ */
+public final class MoveEncoding {
+    private MoveEncoding() {
+    }
+
+    public static int encode(ChessMove move) {
+        var promotion = move.getPromotionPiece() == null ? 0 : move.getPromotionPiece().ordinal() + 1;
+        return (square(move.getStartPosition()) << 10)
+                | (square(move.getEndPosition()) << 4)
+                | (promotion << 1)
+                | (move.isCastle() ? 1 : 0);
+    }
+
+    public static ChessMove decode(int encoded) {
+        var start = position((encoded >> 10) & 0x3F);
+        var end = position((encoded >> 4) & 0x3F);
+        var promotion = (encoded >> 1) & 0x7;
+        var promotionPiece = promotion == 0 ? null : ChessPiece.PieceType.values()[promotion - 1];
+        return new ChessMove(start, end, promotionPiece, (encoded & 1) == 1);
+    }
+
+    private static int square(ChessPosition position) {
+        return (position.getRow() - 1) * 8 + (position.getColumn() - 1);
+    }
+
+    private static ChessPosition position(int square) {
+        return new ChessPosition(square / 8 + 1, square % 8 + 1);
+    }
+}
@@ -0,0 +1,7 @@
+package model;
+
+/**
+ * One page of archived games, optionally only those the named player sat in.
+ */
+public record ArchivedGamesRequest(String authToken, String username, int afterGameID, int limit) {
+}
@@ -0,0 +1,6 @@
+package model;
+
+import java.util.ArrayList;
+
+public record CreateGamesRequest(String authToken, ArrayList<String> gameNames) {
+}
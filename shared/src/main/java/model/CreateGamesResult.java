@@ -0,0 +1,6 @@
+package model;
+
+import java.util.ArrayList;
+
+public record CreateGamesResult(ArrayList<Integer> gameIDs) {
+}
@@ -0,0 +1,12 @@
+package model;
+
+public record GameSummary(int gameID, String gameName, String whiteUsername, String blackUsername, Status status, int moveCount) {
+    public enum Status {
+        IN_PROGRESS,
+        FINISHED
+    }
+
+    public boolean hasOpenSeat() {
+        return whiteUsername == null || blackUsername == null;
+    }
+}
@@ -0,0 +1,4 @@
+package model;
+
+public record GetGameRequest(String authToken, int gameID, Integer knownRevision) {
+}
@@ -0,0 +1,4 @@
+package model;
+
+public record GetGameResult(int revision, GameData game) {
+}
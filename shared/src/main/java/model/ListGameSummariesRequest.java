@@ -0,0 +1,8 @@
+package model;
+
+/**
+ * One page of the lobby. Pages are keyed by the last gameID already seen, so a
+ * page costs the same no matter how far into the listing it is.
+ */
+public record ListGameSummariesRequest(String authToken, int afterGameID, int limit, Boolean openSeats, GameSummary.Status status) {
+}
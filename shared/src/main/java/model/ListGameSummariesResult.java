@@ -0,0 +1,6 @@
+package model;
+
+import java.util.ArrayList;
+
+public record ListGameSummariesResult(ArrayList<GameSummary> games, Integer nextCursor) {
+}
@@ -5,13 +5,17 @@ import model.*;
 import service.ServiceException;
 
 import java.net.URI;
+import java.net.URLEncoder;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
 
 public class ServerFacade {
     private final HttpClient client = HttpClient.newHttpClient();
     private final String serverUrl;
+    private final HashMap<Integer, GetGameResult> gameCache = new HashMap<>();
 
     public ServerFacade(String url) {
         serverUrl = url;
@@ -39,12 +43,60 @@ public class ServerFacade {
         return handleResponse(response, ListGamesResult.class);
     }
 
+    public ListGameSummariesResult lobby(ListGameSummariesRequest lobbyRequest) throws ServiceException {
+        var path = new StringBuilder("/lobby?after=").append(lobbyRequest.afterGameID()).append("&limit=").append(lobbyRequest.limit());
+        if(lobbyRequest.openSeats() != null) {
+            path.append("&openSeats=").append(lobbyRequest.openSeats());
+        }
+        if(lobbyRequest.status() != null) {
+            path.append("&status=").append(lobbyRequest.status());
+        }
+        var request = buildRequest("GET", path.toString(), null, lobbyRequest.authToken());
+        var response = sendRequest(request);
+        return handleResponse(response, ListGameSummariesResult.class);
+    }
+
+    public ListGameSummariesResult archive(ArchivedGamesRequest archiveRequest) throws ServiceException {
+        var path = new StringBuilder("/archive?after=").append(archiveRequest.afterGameID()).append("&limit=").append(archiveRequest.limit());
+        if(archiveRequest.username() != null) {
+            path.append("&player=").append(URLEncoder.encode(archiveRequest.username(), StandardCharsets.UTF_8));
+        }
+        var request = buildRequest("GET", path.toString(), null, archiveRequest.authToken());
+        var response = sendRequest(request);
+        return handleResponse(response, ListGameSummariesResult.class);
+    }
+
+    public GameData getGame(GetGameRequest getGameRequest) throws ServiceException {
+        var cached = gameCache.get(getGameRequest.gameID());
+        var request = requestBuilder("GET", "/game/" + getGameRequest.gameID(), null, getGameRequest.authToken());
+        if(cached != null) {
+            request.setHeader("If-None-Match", "\"" + cached.revision() + "\"");
+        }
+        var response = sendRequest(request.build());
+        if(response.statusCode() == 304 && cached != null) {
+            return cached.game();
+        }
+        var gameData = handleResponse(response, GameData.class);
+        var etag = response.headers().firstValue("ETag");
+        if(etag.isPresent()) {
+            var revision = Integer.parseInt(etag.get().replace("\"", ""));
+            gameCache.put(getGameRequest.gameID(), new GetGameResult(revision, gameData));
+        }
+        return gameData;
+    }
+
     public CreateGameResult create(CreateGameRequest createGameRequest) throws ServiceException {
         var request = buildRequest("POST", "/game", createGameRequest, createGameRequest.authToken());
         var response = sendRequest(request);
         return handleResponse(response, CreateGameResult.class);
     }
 
+    public CreateGamesResult createAll(CreateGamesRequest createGamesRequest) throws ServiceException {
+        var request = buildRequest("POST", "/games", createGamesRequest, createGamesRequest.authToken());
+        var response = sendRequest(request);
+        return handleResponse(response, CreateGamesResult.class);
+    }
+
     public void join(JoinGameRequest joinGameRequest) throws ServiceException {
         var request = buildRequest("PUT", "/game", joinGameRequest, joinGameRequest.authToken());
         var response = sendRequest(request);
@@ -71,6 +123,10 @@ public class ServerFacade {
     }
 
     private HttpRequest buildRequest(String method, String path, Object body, String authToken) {
+        return requestBuilder(method, path, body, authToken).build();
+    }
+
+    private HttpRequest.Builder requestBuilder(String method, String path, Object body, String authToken) {
         var request = HttpRequest.newBuilder()
                 .uri(URI.create(serverUrl + path))
                 .method(method, makeRequestBody(body));
@@ -80,7 +136,7 @@ public class ServerFacade {
         if(authToken != null) {
             request.setHeader("authorization", authToken);
         }
-        return request.build();
+        return request;
     }
 
     private HttpRequest.BodyPublisher makeRequestBody(Object request) {
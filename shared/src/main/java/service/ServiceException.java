@@ -20,6 +20,7 @@ public class ServiceException extends Exception {
             case 400 -> Code.BadRequestError;
             case 403 -> Code.AlreadyTakenError;
             case 401 -> Code.NotFoundError;
+            case 429 -> Code.TooManyRequestsError;
             default -> throw new IllegalStateException("Unexpected value: " + httpStatusCode);
         };
     }
@@ -33,6 +34,7 @@ public class ServiceException extends Exception {
         BadRequestError,
         ServerError,
         ColorNotAvailableError,
+        TooManyRequestsError,
     }
 
     final private Code code;
@@ -51,6 +53,7 @@ public class ServiceException extends Exception {
             case BadRequestError -> 400;
             case NotFoundError, IncorrectPasswordError, GameNotFoundError, NotLoggedInError -> 401;
             case ServerError -> 402;
+            case TooManyRequestsError -> 429;
         };
     }
 }
@@ -36,6 +36,9 @@ public class UserGameCommand {
         MAKE_MOVE,
         LEAVE,
         RESIGN,
+        // watch a game's messages on this socket alongside any others, or stop, without telling its players
+        SUBSCRIBE,
+        UNSUBSCRIBE,
     }
 
     public CommandType getCommandType() {
@@ -13,6 +13,7 @@ public class ServerMessage {
     String message;
     String errorMessage;
     String game;
+    Integer gameID;
 
     public enum ServerMessageType {
         LOAD_GAME,
@@ -33,6 +34,14 @@ public class ServerMessage {
 
     }
 
+    /**
+     * @param gameID the game the message is about, so one socket can follow several games
+     */
+    public ServerMessage(ServerMessageType type, String str, Integer gameID) {
+        this(type, str);
+        this.gameID = gameID;
+    }
+
     public ServerMessageType getServerMessageType() {
         return this.serverMessageType;
     }
@@ -49,6 +58,10 @@ public class ServerMessage {
         return game;
     }
 
+    public Integer getGameID() {
+        return gameID;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -0,0 +1,147 @@
+package chess;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Random;
+
+public class GameCodecTests {
+
+    @Test
+    public void roundTripLongGame() throws InvalidMoveException {
+        var game = randomGame(120, 7);
+        var decoded = GameCodec.decode(GameCodec.encode(game));
+        Assertions.assertEquals(game, decoded);
+        Assertions.assertEquals(game.getMoveHistory(), decoded.getMoveHistory());
+        Assertions.assertEquals(game.gameOver(), decoded.gameOver());
+        Assertions.assertEquals(game.getMoveCount(), decoded.getMoveCount());
+    }
+
+    @Test
+    public void roundTripNewGame() throws InvalidMoveException {
+        var game = new ChessGame();
+        var bytes = GameCodec.encode(game);
+        Assertions.assertEquals(3, bytes.length);
+        Assertions.assertEquals(game, GameCodec.decode(bytes));
+    }
+
+    @Test
+    public void roundTripSpecialMoves() throws InvalidMoveException {
+        var board = new ChessBoard();
+        board.addPiece(new ChessPosition(1, 5), new ChessPiece(ChessGame.TeamColor.WHITE, ChessPiece.PieceType.KING));
+        board.addPiece(new ChessPosition(1, 8), new ChessPiece(ChessGame.TeamColor.WHITE, ChessPiece.PieceType.ROOK));
+        board.addPiece(new ChessPosition(5, 5), new ChessPiece(ChessGame.TeamColor.WHITE, ChessPiece.PieceType.PAWN));
+        board.addPiece(new ChessPosition(7, 1), new ChessPiece(ChessGame.TeamColor.WHITE, ChessPiece.PieceType.PAWN));
+        board.addPiece(new ChessPosition(8, 5), new ChessPiece(ChessGame.TeamColor.BLACK, ChessPiece.PieceType.KING));
+        board.addPiece(new ChessPosition(7, 4), new ChessPiece(ChessGame.TeamColor.BLACK, ChessPiece.PieceType.PAWN));
+        var game = new ChessGame(board);
+        game.setTeamTurn(ChessGame.TeamColor.WHITE);
+        // castle, a double step answered en passant, then a promotion
+        game.makeMove(new ChessMove(new ChessPosition(1, 5), new ChessPosition(1, 7), null));
+        game.makeMove(new ChessMove(new ChessPosition(7, 4), new ChessPosition(5, 4), null));
+        game.makeMove(new ChessMove(new ChessPosition(5, 5), new ChessPosition(6, 4), null));
+        game.makeMove(new ChessMove(new ChessPosition(8, 5), new ChessPosition(8, 4), null));
+        game.makeMove(new ChessMove(new ChessPosition(7, 1), new ChessPosition(8, 1), ChessPiece.PieceType.QUEEN));
+        Assertions.assertNull(game.getBoard().getPiece(new ChessPosition(5, 4)));
+        Assertions.assertNotNull(game.getBoard().getPiece(new ChessPosition(1, 6)));
+
+        var decoded = GameCodec.decode(GameCodec.encode(game));
+        Assertions.assertEquals(game, decoded);
+        Assertions.assertEquals(ChessGame.TeamColor.BLACK, decoded.getTeamTurn());
+    }
+
+    @Test
+    public void gameOverIsKept() throws InvalidMoveException {
+        var game = randomGame(10, 3);
+        game.setGameOver(true);
+        Assertions.assertTrue(GameCodec.decode(GameCodec.encode(game)).gameOver());
+    }
+
+    @Test
+    public void corruptMoveIsRejected() {
+        var bytes = GameCodec.encode(randomGame(4, 5));
+        // the first move now starts from an empty square
+        var empty = MoveEncoding.encode(new ChessMove(new ChessPosition(4, 4), new ChessPosition(5, 4), null));
+        bytes[3] = (byte) (empty >> 8);
+        bytes[4] = (byte) empty;
+        Assertions.assertThrows(InvalidMoveException.class, () -> GameCodec.decode(bytes));
+    }
+
+    @Test
+    public void replayedTailMatchesPlayedGame() throws InvalidMoveException {
+        var game = randomGame(60, 13);
+        var moves = game.getMoveHistory();
+        // a snapshot taken partway through, with the rest read back from a move log
+        var snapshot = checkedReplay(moves.subList(0, 40));
+        var loaded = GameCodec.decode(GameCodec.encode(snapshot));
+        for (var move : moves.subList(40, moves.size())) {
+            GameCodec.replay(loaded, MoveEncoding.encode(move));
+        }
+        Assertions.assertEquals(game, loaded);
+        Assertions.assertEquals(moves, loaded.getMoveHistory());
+
+        var empty = MoveEncoding.encode(new ChessMove(new ChessPosition(4, 4), new ChessPosition(5, 4), null));
+        Assertions.assertThrows(InvalidMoveException.class, () -> GameCodec.replay(new ChessGame(), empty));
+    }
+
+    @Test
+    public void decodeSkipsMoveValidation() throws InvalidMoveException {
+        var game = randomGame(120, 11);
+        var bytes = GameCodec.encode(game);
+        var moves = game.getMoveHistory();
+        for (int i = 0; i < 20; i++) {
+            GameCodec.decode(bytes);
+            checkedReplay(moves);
+        }
+        var start = System.nanoTime();
+        for (int i = 0; i < 20; i++) {
+            GameCodec.decode(bytes);
+        }
+        var decodeNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < 20; i++) {
+            checkedReplay(moves);
+        }
+        var checkedNanos = System.nanoTime() - start;
+        Assertions.assertTrue(decodeNanos * 5 < checkedNanos,
+                String.format("decode took %d us, checked replay %d us", decodeNanos / 1000, checkedNanos / 1000));
+    }
+
+    private static ChessGame checkedReplay(Iterable<ChessMove> moves) throws InvalidMoveException {
+        var game = new ChessGame();
+        for (var move : moves) {
+            game.makeMove(move);
+        }
+        return game;
+    }
+
+    /**
+     * Plays up to plies legal moves picked by a seeded random, so the game is the same
+     * on every run.
+     */
+    private static ChessGame randomGame(int plies, long seed) {
+        var random = new Random(seed);
+        var game = new ChessGame();
+        while (game.getMoveCount() < plies && !game.gameOver()) {
+            var moves = new ArrayList<ChessMove>();
+            for (int row = 1; row <= 8; row++) {
+                for (int col = 1; col <= 8; col++) {
+                    var position = new ChessPosition(row, col);
+                    var piece = game.getBoard().getPiece(position);
+                    if (piece != null && piece.getTeamColor() == game.getTeamTurn()) {
+                        moves.addAll(game.validMoves(position));
+                    }
+                }
+            }
+            moves.sort(Comparator.comparingInt(MoveEncoding::encode));
+            try {
+                game.makeMove(moves.get(random.nextInt(moves.size())));
+            } catch (InvalidMoveException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+        return game;
+    }
+}